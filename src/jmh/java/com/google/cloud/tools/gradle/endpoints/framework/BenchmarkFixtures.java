@@ -0,0 +1,226 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.file.FileType;
+import org.gradle.api.provider.Provider;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.InputChanges;
+
+/**
+ * Synthetic inputs for the benchmarks, sized by the benchmark parameters. Service classes come from
+ * {@link SyntheticSources}, the same as in the functional tests.
+ */
+public final class BenchmarkFixtures {
+
+  private BenchmarkFixtures() {}
+
+  /** Create an empty working directory for a benchmark trial. */
+  public static File createTempDir(String prefix) throws IOException {
+    return java.nio.file.Files.createTempDirectory(prefix).toFile();
+  }
+
+  /** The benchmark's own classpath, which has the endpoints framework on it. */
+  public static String classPath() {
+    return System.getProperty("java.class.path");
+  }
+
+  /** Compile all sources in a directory against the benchmark's own classpath. */
+  public static void compile(File sourceDir, File classesDir) throws IOException {
+    List<File> sources = new ArrayList<>();
+    for (File file : Files.fileTraverser().depthFirstPreOrder(sourceDir)) {
+      if (file.getName().endsWith(".java")) {
+        sources.add(file);
+      }
+    }
+    classesDir.mkdirs();
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    try (StandardJavaFileManager fileManager =
+        compiler.getStandardFileManager(null, null, Charsets.UTF_8)) {
+      List<String> options =
+          Arrays.asList("-d", classesDir.getAbsolutePath(), "-cp", classPath(), "-proc:none");
+      Iterable<? extends JavaFileObject> compilationUnits =
+          fileManager.getJavaFileObjectsFromFiles(sources);
+      boolean success =
+          compiler.getTask(null, fileManager, null, options, null, compilationUnits).call();
+      if (!success) {
+        throw new IOException("Failed to compile synthetic service classes in " + sourceDir);
+      }
+    }
+  }
+
+  /** Write {@code count} discovery docs, and as many non discovery files, into a directory. */
+  public static void writeDiscoveryDocs(File dir, int count) throws IOException {
+    for (int i = 0; i < count; i++) {
+      write(new File(dir, "synthetic" + i + "-v1-rest.discovery"), discoveryDoc(i));
+      write(new File(dir, "synthetic" + i + "-v1-rest.txt"), "not a discovery doc");
+    }
+  }
+
+  /** Write {@code zips} discovery doc zips, the same as the server plugin produces. */
+  public static List<File> writeDiscoveryDocZips(File dir, int zips, int docsPerZip)
+      throws IOException {
+    List<File> zipFiles = new ArrayList<>();
+    for (int zip = 0; zip < zips; zip++) {
+      File zipFile = new File(dir, "server" + zip + "-discoveryDocs.zip");
+      Files.createParentDirs(zipFile);
+      try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+        for (int doc = 0; doc < docsPerZip; doc++) {
+          int api = zip * docsPerZip + doc;
+          out.putNextEntry(new ZipEntry("synthetic" + api + "-v1-rest.discovery"));
+          out.write(discoveryDoc(api).getBytes(Charsets.UTF_8));
+          out.closeEntry();
+        }
+      }
+      zipFiles.add(zipFile);
+    }
+    return zipFiles;
+  }
+
+  /**
+   * Write {@code zips} client library zips laid out like the endpoints tool's gradle output, a
+   * project directory with {@code sourcesPerZip} java sources under src/main/java.
+   */
+  public static void writeClientLibraryZips(File dir, int zips, int sourcesPerZip)
+      throws IOException {
+    for (int zip = 0; zip < zips; zip++) {
+      String api = "synthetic" + zip;
+      File zipFile = new File(dir, api + "-v1-java.zip");
+      Files.createParentDirs(zipFile);
+      try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+        out.putNextEntry(new ZipEntry(api + "/build.gradle"));
+        out.write("apply plugin: 'java'\n".getBytes(Charsets.UTF_8));
+        out.closeEntry();
+        for (int source = 0; source < sourcesPerZip; source++) {
+          String className = "Model" + source;
+          out.putNextEntry(
+              new ZipEntry(
+                  api + "/src/main/java/com/example/" + api + "/model/" + className + ".java"));
+          out.write(
+              ("package com.example."
+                      + api
+                      + ".model;\n\npublic final class "
+                      + className
+                      + " extends com.google.api.client.json.GenericJson {\n}\n")
+                  .getBytes(Charsets.UTF_8));
+          out.closeEntry();
+        }
+      }
+    }
+  }
+
+  /**
+   * Input changes of a non incremental execution, every file of an input is reported as added, the
+   * same as gradle does when a task has no previous execution.
+   */
+  public static InputChanges nonIncrementalChanges() {
+    return new InputChanges() {
+      @Override
+      public boolean isIncremental() {
+        return false;
+      }
+
+      @Override
+      public Iterable<FileChange> getFileChanges(FileCollection parameter) {
+        List<FileChange> changes = new ArrayList<>();
+        for (File file : parameter.getAsFileTree()) {
+          changes.add(added(file));
+        }
+        return changes;
+      }
+
+      @Override
+      public Iterable<FileChange> getFileChanges(Provider<? extends FileSystemLocation> parameter) {
+        List<FileChange> changes = new ArrayList<>();
+        for (File file : Files.fileTraverser().depthFirstPreOrder(parameter.get().getAsFile())) {
+          if (file.isFile()) {
+            changes.add(added(file));
+          }
+        }
+        return changes;
+      }
+    };
+  }
+
+  private static FileChange added(final File file) {
+    return new FileChange() {
+      @Override
+      public File getFile() {
+        return file;
+      }
+
+      @Override
+      public ChangeType getChangeType() {
+        return ChangeType.ADDED;
+      }
+
+      @Override
+      public FileType getFileType() {
+        return FileType.FILE;
+      }
+
+      @Override
+      public String getNormalizedPath() {
+        return file.getName();
+      }
+    };
+  }
+
+  private static String discoveryDoc(int api) {
+    return "{\n"
+        + " \"kind\": \"discovery#restDescription\",\n"
+        + " \"discoveryVersion\": \"v1\",\n"
+        + " \"id\": \"synthetic"
+        + api
+        + ":v1\",\n"
+        + " \"name\": \"synthetic"
+        + api
+        + "\",\n"
+        + " \"version\": \"v1\",\n"
+        + " \"protocol\": \"rest\",\n"
+        + " \"rootUrl\": \"https://localhost/_ah/api/\",\n"
+        + " \"servicePath\": \"synthetic"
+        + api
+        + "/v1/\",\n"
+        + " \"schemas\": {},\n"
+        + " \"methods\": {}\n"
+        + "}\n";
+  }
+
+  private static void write(File file, String contents) throws IOException {
+    Files.createParentDirs(file);
+    Files.asCharSink(file, Charsets.UTF_8).write(contents);
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.client.task;
+
+import com.google.cloud.tools.gradle.endpoints.framework.BenchmarkFixtures;
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** The task action of {@link ExtractDiscoveryDocZipsTask} over synthetic server zips. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExtractDiscoveryDocZipsBenchmark {
+
+  @Param({"1", "10"})
+  public int zips;
+
+  @Param({"1", "50"})
+  public int docsPerZip;
+
+  private File projectDir;
+  private ExtractDiscoveryDocZipsTask task;
+
+  /** Write the zips and create the task in a throwaway project. */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    projectDir = BenchmarkFixtures.createTempDir("extractDiscoveryDocZips");
+    Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+
+    List<File> discoveryDocZips =
+        BenchmarkFixtures.writeDiscoveryDocZips(new File(projectDir, "zips"), zips, docsPerZip);
+
+    task = project.getTasks().create("extract", ExtractDiscoveryDocZipsTask.class);
+    task.getDiscoveryDocZips().from(discoveryDocZips);
+    task.getDiscoveryDocsDir().set(new File(projectDir, "discoveryDocs"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    DirectorySync.deleteRecursively(projectDir);
+  }
+
+  @Benchmark
+  public void extractDiscoveryDocs() throws IOException {
+    task.extractDiscoveryDocs(BenchmarkFixtures.nonIncrementalChanges());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.client.task;
+
+import com.google.cloud.tools.gradle.endpoints.framework.BenchmarkFixtures;
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The task action of {@link GenerateClientLibrarySourceTask}, unzipping client libraries and
+ * copying their sources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GenerateClientLibrarySourceBenchmark {
+
+  @Param({"1", "10"})
+  public int clientLibraries;
+
+  @Param({"10", "200"})
+  public int sourcesPerLibrary;
+
+  private File projectDir;
+  private GenerateClientLibrarySourceTask task;
+
+  /** Write the client library zips and create the task in a throwaway project. */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    projectDir = BenchmarkFixtures.createTempDir("generateClientLibrarySource");
+    Project project = ProjectBuilder.builder().withProjectDir(projectDir).build();
+
+    File clientLibDir = new File(projectDir, "clientLibs");
+    BenchmarkFixtures.writeClientLibraryZips(clientLibDir, clientLibraries, sourcesPerLibrary);
+
+    task = project.getTasks().create("generateSource", GenerateClientLibrarySourceTask.class);
+    task.getClientLibDir().set(clientLibDir);
+    task.getGeneratedSrcDir().set(new File(projectDir, "generatedSrc"));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    DirectorySync.deleteRecursively(projectDir);
+  }
+
+  @Benchmark
+  public void generateSource() throws IOException {
+    task.generateSource();
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.google.api.server.spi.tools.GetDiscoveryDocAction;
+import com.google.cloud.tools.gradle.endpoints.framework.BenchmarkFixtures;
+import com.google.cloud.tools.gradle.endpoints.framework.SyntheticSources;
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolActions;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolRequest;
+import com.google.common.base.Splitter;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Discovery doc generation for synthetic service classes, with the same tool request
+ * endpointsDiscoveryDocs uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DiscoveryDocGenerationBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int serviceClasses;
+
+  @Param({"1", "5"})
+  public int beanDepth;
+
+  private File workDir;
+  private EndpointsToolRequest request;
+
+  /** Write and compile the service classes once per trial. */
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    workDir = BenchmarkFixtures.createTempDir("discoveryDocGeneration");
+    File sourceDir = new File(workDir, "src");
+    File classesDir = new File(workDir, "classes");
+    File webAppDir = new File(workDir, "webapp");
+    File outputDir = new File(workDir, "discoveryDocs");
+    webAppDir.mkdirs();
+
+    List<String> serviceClassNames =
+        SyntheticSources.writeServiceClasses(sourceDir, serviceClasses, beanDepth);
+    BenchmarkFixtures.compile(sourceDir, classesDir);
+
+    List<File> classpath = new ArrayList<>();
+    classpath.add(classesDir.getAbsoluteFile());
+    for (String entry : Splitter.on(File.pathSeparator).split(BenchmarkFixtures.classPath())) {
+      classpath.add(new File(entry).getAbsoluteFile());
+    }
+    request =
+        EndpointsToolRequest.introspect(
+            GetDiscoveryDocAction.NAME,
+            outputDir.getAbsoluteFile(),
+            classpath,
+            webAppDir.getAbsoluteFile(),
+            serviceClassNames,
+            "localhost",
+            null,
+            null,
+            null);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    DirectorySync.deleteRecursively(workDir);
+  }
+
+  @Benchmark
+  public void generateDiscoveryDocs() throws Exception {
+    EndpointsToolActions.run(request);
+  }
+}
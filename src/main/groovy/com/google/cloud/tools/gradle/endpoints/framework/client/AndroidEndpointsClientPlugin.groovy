@@ -34,8 +34,10 @@ public class AndroidEndpointsClientPlugin implements Plugin<Project> {
     // generated/source directory or the IDE wont recognize it.
     endpointsClient.genSrcDir = new File(project.buildDir, "generated/source/endpoints");
 
-    // register our source generating task and outputs with the android model
-    def genSrcTask = project.tasks.getByName(EndpointsClientPlugin.GENERATE_CLIENT_LIBRARY_SRC_TASK)
+    // register our source generating task and outputs with the android model, the task is passed
+    // as a provider so it is not created before it runs, and genSrcDir is resolved per variant so a
+    // later change of endpointsClient.genSrcDir is honored
+    def genSrcTask = project.tasks.named(EndpointsClientPlugin.GENERATE_CLIENT_LIBRARY_SRC_TASK)
     if (android.hasProperty("applicationVariants")) {
       android.applicationVariants.all { variant ->
         variant.registerJavaGeneratingTask(genSrcTask, endpointsClient.genSrcDir)
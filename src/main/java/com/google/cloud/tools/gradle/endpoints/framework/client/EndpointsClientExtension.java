@@ -16,52 +16,134 @@
 
 package com.google.cloud.tools.gradle.endpoints.framework.client;
 
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsForkOptions;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import org.gradle.api.Action;
 import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
 
-/** Plugin extension for endpoints client plugin. */
+/**
+ * Plugin extension for endpoints client plugin. Values are stored lazily, the plugin wires the
+ * {@code ...Property()} getters and {@link #getDiscoveryDocFiles()} into its tasks. The plain
+ * getters resolve the value when they are called.
+ */
 public class EndpointsClientExtension {
 
-  private File genSrcDir;
-  private final File clientLibDir;
-  private final File genDiscoveryDocsDir;
+  private final DirectoryProperty genSrcDir;
+  private final DirectoryProperty clientLibDir;
+  private final DirectoryProperty genDiscoveryDocsDir;
   private final Project project;
-  private List<File> discoveryDocs;
+  private final ConfigurableFileCollection discoveryDocs;
+  private final Property<Boolean> useWorkerProcess;
+  private final Property<Boolean> parallelGeneration;
+  private final Property<Boolean> performanceReports;
+  private final EndpointsForkOptions forkOptions;
 
   /** Constructor. */
   public EndpointsClientExtension(Project project) {
     this.project = project;
-    genSrcDir = new File(project.getBuildDir(), "endpointsGenSrc");
-    clientLibDir = new File(project.getBuildDir(), "endpointsClientLibs");
-    genDiscoveryDocsDir = new File(project.getBuildDir(), "endpointsDiscoveryDocsFromDependencies");
+    genSrcDir =
+        project
+            .getObjects()
+            .directoryProperty()
+            .convention(project.getLayout().getBuildDirectory().dir("endpointsGenSrc"));
+    clientLibDir =
+        project
+            .getObjects()
+            .directoryProperty()
+            .convention(project.getLayout().getBuildDirectory().dir("endpointsClientLibs"));
+    genDiscoveryDocsDir =
+        project
+            .getObjects()
+            .directoryProperty()
+            .convention(
+                project
+                    .getLayout()
+                    .getBuildDirectory()
+                    .dir("endpointsDiscoveryDocsFromDependencies"));
 
-    discoveryDocs = new ArrayList<>();
+    discoveryDocs = project.files();
+    useWorkerProcess = project.getObjects().property(Boolean.class).convention(false);
+    parallelGeneration = project.getObjects().property(Boolean.class).convention(false);
+    performanceReports = project.getObjects().property(Boolean.class).convention(false);
+    forkOptions = new EndpointsForkOptions(project.getObjects());
   }
 
   public File getGenSrcDir() {
+    return genSrcDir.get().getAsFile();
+  }
+
+  public DirectoryProperty getGenSrcDirProperty() {
     return genSrcDir;
   }
 
   public void setGenSrcDir(Object genSrcDir) {
-    this.genSrcDir = project.file(genSrcDir);
+    this.genSrcDir.set(project.file(genSrcDir));
   }
 
   public File getClientLibDir() {
+    return clientLibDir.get().getAsFile();
+  }
+
+  public DirectoryProperty getClientLibDirProperty() {
     return clientLibDir;
   }
 
   public File getGenDiscoveryDocsDir() {
+    return genDiscoveryDocsDir.get().getAsFile();
+  }
+
+  public DirectoryProperty getGenDiscoveryDocsDirProperty() {
     return genDiscoveryDocsDir;
   }
 
   public List<File> getDiscoveryDocs() {
+    return new ArrayList<>(discoveryDocs.getFiles());
+  }
+
+  public ConfigurableFileCollection getDiscoveryDocFiles() {
     return discoveryDocs;
   }
 
   public void setDiscoveryDocs(Object discoveryDocs) {
-    this.discoveryDocs.clear();
-    this.discoveryDocs.addAll(project.files(discoveryDocs).getFiles());
+    this.discoveryDocs.setFrom(discoveryDocs);
+  }
+
+  public Property<Boolean> getUseWorkerProcess() {
+    return useWorkerProcess;
+  }
+
+  public void setUseWorkerProcess(boolean useWorkerProcess) {
+    this.useWorkerProcess.set(useWorkerProcess);
+  }
+
+  public Property<Boolean> getParallelGeneration() {
+    return parallelGeneration;
+  }
+
+  public void setParallelGeneration(boolean parallelGeneration) {
+    this.parallelGeneration.set(parallelGeneration);
+  }
+
+  /** Whether the tasks write performance reports to {@code build/reports/endpoints}. */
+  public Property<Boolean> getPerformanceReports() {
+    return performanceReports;
+  }
+
+  public void setPerformanceReports(boolean performanceReports) {
+    this.performanceReports.set(performanceReports);
+  }
+
+  /** Options for the worker process, only used with {@code useWorkerProcess}. */
+  public EndpointsForkOptions getForkOptions() {
+    return forkOptions;
+  }
+
+  public void forkOptions(Action<? super EndpointsForkOptions> action) {
+    action.execute(forkOptions);
   }
 }
@@ -20,13 +20,14 @@ import com.google.cloud.tools.gradle.endpoints.framework.client.task.ExtractDisc
 import com.google.cloud.tools.gradle.endpoints.framework.client.task.GenerateClientLibrariesTask;
 import com.google.cloud.tools.gradle.endpoints.framework.client.task.GenerateClientLibrarySourceTask;
 import com.google.cloud.tools.gradle.endpoints.framework.server.EndpointsServerPlugin;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsClassLoaderService;
+import com.google.cloud.tools.gradle.endpoints.framework.util.PerformanceReport;
 import com.google.common.collect.ImmutableMap;
-import java.io.File;
-import java.util.Collection;
 import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.plugins.JavaPluginConvention;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.compile.AbstractCompile;
@@ -75,12 +76,14 @@ public class EndpointsClientPlugin implements Plugin<Project> {
 
   private Project project;
   private EndpointsClientExtension extension;
+  private Provider<EndpointsClassLoaderService> classLoaderService;
 
   /** Plugin entry point. */
   public void apply(Project project) {
     this.project = project;
     createExtension();
     createConfiguration();
+    classLoaderService = EndpointsClassLoaderService.register(project);
     createExtractServerDiscoveryDocsTask();
     createGenerateClientLibTask();
     createGenerateClientLibSrcTask();
@@ -108,71 +111,52 @@ public class EndpointsClientPlugin implements Plugin<Project> {
   private void createExtractServerDiscoveryDocsTask() {
     project
         .getTasks()
-        .create(
+        .register(
             EXTRACT_SERVER_DISCOVERY_DOCS_TASK,
             ExtractDiscoveryDocZipsTask.class,
             new Action<ExtractDiscoveryDocZipsTask>() {
               @Override
-              public void execute(final ExtractDiscoveryDocZipsTask extractDiscoveryDocs) {
+              public void execute(ExtractDiscoveryDocZipsTask extractDiscoveryDocs) {
                 extractDiscoveryDocs.setDescription("_internal");
-                // iterate through the configuration and get all artifacts (discovery doc zips)
-                project.afterEvaluate(
-                    new Action<Project>() {
-                      @Override
-                      public void execute(Project project) {
-                        Collection<File> files =
-                            project
-                                .getConfigurations()
-                                .getByName(ENDPOINTS_SERVER_CONFIGURATION)
-                                .getFiles();
-                        extractDiscoveryDocs.setDiscoveryDocZips(files);
-                        extractDiscoveryDocs.setDiscoveryDocsDir(
-                            extension.getGenDiscoveryDocsDir());
-                      }
-                    });
+                // the configuration is only resolved when the task runs, and as a task input it
+                // carries the build dependencies on the server projects producing the zips
+                extractDiscoveryDocs
+                    .getDiscoveryDocZips()
+                    .from(project.getConfigurations().getByName(ENDPOINTS_SERVER_CONFIGURATION));
+                extractDiscoveryDocs
+                    .getDiscoveryDocsDir()
+                    .set(extension.getGenDiscoveryDocsDirProperty());
+                extractDiscoveryDocs
+                    .getReportDir()
+                    .set(PerformanceReport.reportDir(project, extension.getPerformanceReports()));
               }
             });
-
-    // make sure we depend on the server configuration build tasks, so those get run
-    // before we run our task to get the discovery docs, for some reason with the android plugin,
-    // this needs to be done outside the task configuration block above.
-    project.afterEvaluate(
-        new Action<Project>() {
-          @Override
-          public void execute(Project project) {
-            project
-                .getTasks()
-                .getByName(EXTRACT_SERVER_DISCOVERY_DOCS_TASK)
-                .dependsOn(
-                    project
-                        .getConfigurations()
-                        .getByName(ENDPOINTS_SERVER_CONFIGURATION)
-                        .getBuildDependencies());
-          }
-        });
   }
 
   private void createGenerateClientLibTask() {
     project
         .getTasks()
-        .create(
+        .register(
             GENERATE_CLIENT_LIBRARY_TASK,
             GenerateClientLibrariesTask.class,
             new Action<GenerateClientLibrariesTask>() {
               @Override
-              public void execute(final GenerateClientLibrariesTask genClientLibs) {
+              public void execute(GenerateClientLibrariesTask genClientLibs) {
                 genClientLibs.setDescription("_internal");
                 genClientLibs.dependsOn(EXTRACT_SERVER_DISCOVERY_DOCS_TASK);
-
-                project.afterEvaluate(
-                    new Action<Project>() {
-                      @Override
-                      public void execute(Project project) {
-                        genClientLibs.setClientLibraryDir(extension.getClientLibDir());
-                        genClientLibs.setDiscoveryDocs(extension.getDiscoveryDocs());
-                        genClientLibs.setGeneratedDiscoveryDocs(extension.getGenDiscoveryDocsDir());
-                      }
-                    });
+                genClientLibs.getClientLibraryDir().set(extension.getClientLibDirProperty());
+                genClientLibs.getDiscoveryDocs().from(extension.getDiscoveryDocFiles());
+                genClientLibs
+                    .getGeneratedDiscoveryDocsDir()
+                    .set(extension.getGenDiscoveryDocsDirProperty());
+                genClientLibs.getUseWorkerProcess().set(extension.getUseWorkerProcess());
+                genClientLibs.getParallelGeneration().set(extension.getParallelGeneration());
+                genClientLibs.getForkOptions().from(extension.getForkOptions());
+                genClientLibs.usesService(classLoaderService);
+                genClientLibs.getClassLoaderService().set(classLoaderService);
+                genClientLibs
+                    .getReportDir()
+                    .set(PerformanceReport.reportDir(project, extension.getPerformanceReports()));
               }
             });
   }
@@ -180,23 +164,19 @@ public class EndpointsClientPlugin implements Plugin<Project> {
   private void createGenerateClientLibSrcTask() {
     project
         .getTasks()
-        .create(
+        .register(
             GENERATE_CLIENT_LIBRARY_SRC_TASK,
             GenerateClientLibrarySourceTask.class,
             new Action<GenerateClientLibrarySourceTask>() {
               @Override
-              public void execute(final GenerateClientLibrarySourceTask genClientLibSrc) {
+              public void execute(GenerateClientLibrarySourceTask genClientLibSrc) {
                 genClientLibSrc.setDescription("_internal");
                 genClientLibSrc.dependsOn(GENERATE_CLIENT_LIBRARY_TASK);
-
-                project.afterEvaluate(
-                    new Action<Project>() {
-                      @Override
-                      public void execute(Project project) {
-                        genClientLibSrc.setClientLibDir(extension.getClientLibDir());
-                        genClientLibSrc.setGeneratedSrcDir(extension.getGenSrcDir());
-                      }
-                    });
+                genClientLibSrc.getClientLibDir().set(extension.getClientLibDirProperty());
+                genClientLibSrc.getGeneratedSrcDir().set(extension.getGenSrcDirProperty());
+                genClientLibSrc
+                    .getReportDir()
+                    .set(PerformanceReport.reportDir(project, extension.getPerformanceReports()));
               }
             });
 
@@ -209,8 +189,8 @@ public class EndpointsClientPlugin implements Plugin<Project> {
       // since we are generating sources add the gen-src directory to the main java sourceset
       project
           .getTasks()
-          .withType(
-              AbstractCompile.class,
+          .withType(AbstractCompile.class)
+          .configureEach(
               new Action<AbstractCompile>() {
                 @Override
                 public void execute(AbstractCompile compile) {
@@ -220,7 +200,7 @@ public class EndpointsClientPlugin implements Plugin<Project> {
       JavaPluginConvention java = project.getConvention().getPlugin(JavaPluginConvention.class);
       SourceSetContainer sourceSets = java.getSourceSets();
       SourceSet mainSrc = sourceSets.getByName("main");
-      mainSrc.getJava().srcDir(extension.getGenSrcDir());
+      mainSrc.getJava().srcDir(extension.getGenSrcDirProperty());
     }
   }
 }
@@ -16,57 +16,141 @@
 
 package com.google.cloud.tools.gradle.endpoints.framework.client.task;
 
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import com.google.cloud.tools.gradle.endpoints.framework.util.PerformanceReport;
+import com.google.cloud.tools.gradle.endpoints.framework.util.ZipExtractor;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
 import java.io.File;
-import java.util.Collection;
-import java.util.HashMap;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import javax.inject.Inject;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
 
 /**
  * Task to extract all discovery docs from zips generated by other modules in the same gradle
  * project.
+ *
+ * <p>Only zips that changed since the last run are extracted again, and the files each zip
+ * extracted are recorded, so the files of removed zips and of entries removed from a zip can be
+ * deleted without touching the rest of the output.
  */
 public class ExtractDiscoveryDocZipsTask extends DefaultTask {
 
-  private Collection<File> discoveryDocZips;
-  private File discoveryDocsDir;
+  private static final String EXTRACTED_FILES = "extracted.properties";
 
-  @InputFiles
-  public Collection<File> getDiscoveryDocZips() {
-    return discoveryDocZips;
+  private final ConfigurableFileCollection discoveryDocZips;
+  private final DirectoryProperty discoveryDocsDir;
+  private final DirectoryProperty reportDir;
+
+  /** Constructor. */
+  @Inject
+  public ExtractDiscoveryDocZipsTask(ObjectFactory objects) {
+    discoveryDocZips = objects.fileCollection();
+    discoveryDocsDir = objects.directoryProperty();
+    reportDir = objects.directoryProperty();
   }
 
-  public void setDiscoveryDocZips(Collection<File> discoveryDocZips) {
-    this.discoveryDocZips = discoveryDocZips;
+  @Incremental
+  @InputFiles
+  public ConfigurableFileCollection getDiscoveryDocZips() {
+    return discoveryDocZips;
   }
 
   @OutputDirectory
-  public File getDiscoveryDocsDir() {
+  public DirectoryProperty getDiscoveryDocsDir() {
     return discoveryDocsDir;
   }
 
-  public void setDiscoveryDocsDir(File discoveryDocsDir) {
-    this.discoveryDocsDir = discoveryDocsDir;
+  /** Where the task writes its performance report, no report is written if unset. */
+  @Internal
+  public DirectoryProperty getReportDir() {
+    return reportDir;
   }
 
   /** Task entry point. */
   @TaskAction
-  public void extractDiscoveryDocs() {
-    getProject().delete(discoveryDocsDir);
-    getProject().mkdir(discoveryDocsDir);
+  public void extractDiscoveryDocs(InputChanges inputChanges) throws IOException {
+    PerformanceReport report = new PerformanceReport(getPath(), reportDir.isPresent());
+    File discoveryDocsDir = this.discoveryDocsDir.get().getAsFile();
+    File extractedFilesFile = new File(getTemporaryDir(), EXTRACTED_FILES);
+
+    // zip path -> files extracted from it, '\n' separated
+    Properties extractedFiles = new Properties();
+    boolean incremental = inputChanges.isIncremental() && extractedFilesFile.isFile();
+    if (incremental) {
+      try (InputStream in = new FileInputStream(extractedFilesFile)) {
+        extractedFiles.load(in);
+      }
+    }
 
-    for (final File discoveryDocZip : discoveryDocZips) {
-      getAnt()
-          .invokeMethod(
-              "unzip",
-              new HashMap<String, String>() {
-                {
-                  put("src", discoveryDocZip.getPath());
-                  put("dest", discoveryDocsDir.getPath());
-                }
-              });
+    ZipExtractor extractor = new ZipExtractor(discoveryDocsDir);
+    try (PerformanceReport.Phase phase = report.startPhase("zipExtraction")) {
+      if (incremental) {
+        for (FileChange change : inputChanges.getFileChanges(discoveryDocZips)) {
+          if (change.getFileType() == FileType.DIRECTORY) {
+            continue;
+          }
+          File zip = change.getFile();
+          if (change.getChangeType() == ChangeType.REMOVED) {
+            extractedFiles.remove(zip.getAbsolutePath());
+          } else {
+            extract(extractor, zip, extractedFiles);
+          }
+        }
+      } else {
+        for (File zip : discoveryDocZips) {
+          if (zip.isFile()) {
+            extract(extractor, zip, extractedFiles);
+          }
+        }
+      }
     }
+
+    // deletes the files of removed zips, and files no longer in a changed zip, unless another zip
+    // still provides them
+    try (PerformanceReport.Phase phase = report.startPhase("staleFileRemoval")) {
+      Set<String> retained = new HashSet<>();
+      for (String zip : extractedFiles.stringPropertyNames()) {
+        retained.addAll(
+            Splitter.on('\n').omitEmptyStrings().splitToList(extractedFiles.getProperty(zip)));
+      }
+      DirectorySync.retainFiles(discoveryDocsDir, retained);
+    }
+    try (OutputStream out = new FileOutputStream(extractedFilesFile)) {
+      extractedFiles.store(out, null);
+    }
+
+    for (File discoveryDocZip : discoveryDocZips) {
+      report.count("zips", 1);
+      report.bytes("zips", discoveryDocZip.length());
+    }
+    report.count("writtenFiles", extractor.getWrittenFiles());
+    report.count("unchangedFiles", extractor.getUnchangedFiles());
+    report.files("discoveryDocs", discoveryDocsDir);
+    report.write(reportDir, getName());
+  }
+
+  private static void extract(ZipExtractor extractor, File zip, Properties extractedFiles)
+      throws IOException {
+    extractedFiles.setProperty(zip.getAbsolutePath(), Joiner.on('\n').join(extractor.extract(zip)));
   }
 }
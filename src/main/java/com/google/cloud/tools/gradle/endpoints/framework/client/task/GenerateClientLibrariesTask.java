@@ -16,98 +16,316 @@
 
 package com.google.cloud.tools.gradle.endpoints.framework.client.task;
 
-import com.google.api.server.spi.tools.EndpointsTool;
-import com.google.api.server.spi.tools.GenClientLibAction;
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsClassLoaderService;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsForkOptions;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolRequest;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolWorkAction;
+import com.google.cloud.tools.gradle.endpoints.framework.util.PerformanceReport;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import javax.inject.Inject;
+import org.gradle.api.Action;
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DeleteSpec;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
-/** Endpoints task to download a client library from the endpoints service. */
+/**
+ * Endpoints task to download a client library from the endpoints service.
+ *
+ * <p>The client library zips generated from each discovery doc are recorded, so an incremental run
+ * only generates libraries for added or changed discovery docs and deletes the libraries of removed
+ * ones.
+ */
 public class GenerateClientLibrariesTask extends DefaultTask {
-  private File clientLibraryDir;
-  private List<File> discoveryDocs;
-  private File generatedDiscoveryDocsDir;
+  private static final String CLIENT_LIBS_FILE = "clientLibs.properties";
+  private static final Splitter ZIP_NAMES = Splitter.on('\n').omitEmptyStrings();
 
-  @OutputDirectory
-  public File getClientLibraryDir() {
-    return clientLibraryDir;
+  private final DirectoryProperty clientLibraryDir;
+  private final ConfigurableFileCollection discoveryDocs;
+  private final DirectoryProperty generatedDiscoveryDocsDir;
+  private final DirectoryProperty reportDir;
+  private final Property<Boolean> useWorkerProcess;
+  private final Property<Boolean> parallelGeneration;
+  private final EndpointsForkOptions forkOptions;
+  private final Property<EndpointsClassLoaderService> classLoaderService;
+
+  private final WorkerExecutor workerExecutor;
+  private final FileSystemOperations fileSystemOperations;
+
+  /** Constructor. */
+  @Inject
+  public GenerateClientLibrariesTask(
+      WorkerExecutor workerExecutor,
+      ObjectFactory objects,
+      FileSystemOperations fileSystemOperations) {
+    this.workerExecutor = workerExecutor;
+    this.fileSystemOperations = fileSystemOperations;
+    clientLibraryDir = objects.directoryProperty();
+    discoveryDocs = objects.fileCollection();
+    generatedDiscoveryDocsDir = objects.directoryProperty();
+    reportDir = objects.directoryProperty();
+    useWorkerProcess = objects.property(Boolean.class).convention(false);
+    parallelGeneration = objects.property(Boolean.class).convention(false);
+    forkOptions = new EndpointsForkOptions(objects);
+    classLoaderService = objects.property(EndpointsClassLoaderService.class);
   }
 
-  public void setClientLibraryDir(File clientLibraryDir) {
-    this.clientLibraryDir = clientLibraryDir;
+  @OutputDirectory
+  public DirectoryProperty getClientLibraryDir() {
+    return clientLibraryDir;
   }
 
+  /**
+   * Discovery docs as directories and files, all discovery docs in directories are found at
+   * execution time.
+   */
+  @Incremental
   @InputFiles
-  public List<File> getDiscoveryDocs() {
+  public ConfigurableFileCollection getDiscoveryDocs() {
     return discoveryDocs;
   }
 
+  @Incremental
+  @InputDirectory
+  public DirectoryProperty getGeneratedDiscoveryDocsDir() {
+    return generatedDiscoveryDocsDir;
+  }
+
+  /** Where the task writes its performance report, no report is written if unset. */
+  @Internal
+  public DirectoryProperty getReportDir() {
+    return reportDir;
+  }
+
+  /** Whether client libraries are generated in a worker process instead of the daemon. */
+  @Internal
+  public Property<Boolean> getUseWorkerProcess() {
+    return useWorkerProcess;
+  }
+
   /**
-   * Set discovery docs as a list of directories and files, will find all discovery docs in
-   * directories as necessary.
+   * Whether client libraries of different discovery docs are generated concurrently, as many at a
+   * time as gradle's max workers allows.
    */
-  public void setDiscoveryDocs(List<File> discoveryDocs) {
-    List<File> expandedDiscoveryDocs = new ArrayList<>();
-    for (File discoveryDoc : discoveryDocs) {
-      if (discoveryDoc.isDirectory()) {
-        expandedDiscoveryDocs.addAll(findDiscoveryDocsInDirectory(discoveryDoc));
-      } else {
-        expandedDiscoveryDocs.add(discoveryDoc);
-      }
-    }
-    this.discoveryDocs = expandedDiscoveryDocs;
+  @Internal
+  public Property<Boolean> getParallelGeneration() {
+    return parallelGeneration;
   }
 
-  @InputDirectory
-  public File getGeneratedDiscoveryDocsDir() {
-    return generatedDiscoveryDocsDir;
+  /** Options for the worker process, only used with {@link #getUseWorkerProcess()}. */
+  @Internal
+  public EndpointsForkOptions getForkOptions() {
+    return forkOptions;
   }
 
-  public void setGeneratedDiscoveryDocs(File generatedDiscoveryDocsDir) {
-    this.generatedDiscoveryDocsDir = generatedDiscoveryDocsDir;
+  /**
+   * The service that keeps the endpoints tool loaded between tool runs in the build process, if
+   * unset the tool classes are used as the plugin loaded them.
+   */
+  @Internal
+  public Property<EndpointsClassLoaderService> getClassLoaderService() {
+    return classLoaderService;
   }
 
   /** Task entry point. */
   @TaskAction
-  public void generateClientLibs() throws Exception {
-    getProject().delete(clientLibraryDir);
-    getProject().mkdir(clientLibraryDir);
+  public void generateClientLibs(InputChanges inputChanges) throws Exception {
+    PerformanceReport report = new PerformanceReport(getPath(), reportDir.isPresent());
+    final File clientLibraryDir = this.clientLibraryDir.get().getAsFile();
+    File clientLibsFile = new File(getTemporaryDir(), CLIENT_LIBS_FILE);
 
+    List<File> allDiscoveryDocs = new ArrayList<>();
     for (File discoveryDoc : discoveryDocs) {
-      runEndpointsTools(discoveryDoc);
+      if (discoveryDoc.isDirectory()) {
+        allDiscoveryDocs.addAll(findDiscoveryDocsInDirectory(discoveryDoc));
+      } else {
+        allDiscoveryDocs.add(discoveryDoc);
+      }
+    }
+    File generatedDiscoveryDocsDir = this.generatedDiscoveryDocsDir.get().getAsFile();
+    allDiscoveryDocs.addAll(findDiscoveryDocsInDirectory(generatedDiscoveryDocsDir));
+
+    // discovery doc path -> names of the client library zips generated from it, '\n' separated
+    Properties clientLibs = new Properties();
+    List<File> changedDiscoveryDocs = new ArrayList<>();
+    if (inputChanges.isIncremental() && clientLibsFile.isFile()) {
+      try (InputStream in = new FileInputStream(clientLibsFile)) {
+        clientLibs.load(in);
+      }
+      Set<String> changedPaths = new HashSet<>();
+      for (FileChange change :
+          Iterables.concat(
+              inputChanges.getFileChanges(discoveryDocs),
+              inputChanges.getFileChanges(this.generatedDiscoveryDocsDir))) {
+        if (change.getChangeType() != ChangeType.REMOVED) {
+          changedPaths.add(change.getFile().getAbsolutePath());
+        }
+      }
+      Set<String> currentPaths = new HashSet<>();
+      for (File discoveryDoc : allDiscoveryDocs) {
+        String path = discoveryDoc.getAbsolutePath();
+        currentPaths.add(path);
+        if (changedPaths.contains(path) || clientLibs.getProperty(path) == null) {
+          changedDiscoveryDocs.add(discoveryDoc);
+        }
+      }
+      for (String path : clientLibs.stringPropertyNames()) {
+        if (!currentPaths.contains(path)) {
+          deleteClientLibs(clientLibraryDir, clientLibs, path);
+        }
+      }
+    } else {
+      fileSystemOperations.delete(
+          new Action<DeleteSpec>() {
+            @Override
+            public void execute(DeleteSpec deleteSpec) {
+              deleteSpec.delete(clientLibraryDir);
+            }
+          });
+      if (!clientLibraryDir.mkdirs()) {
+        throw new GradleException("Failed to create directory " + clientLibraryDir);
+      }
+      changedDiscoveryDocs.addAll(allDiscoveryDocs);
     }
 
-    for (File discoveryDoc : findDiscoveryDocsInDirectory(generatedDiscoveryDocsDir)) {
-      runEndpointsTools(discoveryDoc);
+    // every discovery doc is generated into its own directory, so the zips it produced are known
+    File stagingDir = new File(getTemporaryDir(), "staging");
+    DirectorySync.deleteRecursively(stagingDir);
+    List<File> docStagingDirs = new ArrayList<>();
+    for (int i = 0; i < changedDiscoveryDocs.size(); i++) {
+      File docStagingDir = new File(stagingDir, String.valueOf(i));
+      if (!docStagingDir.mkdirs()) {
+        throw new GradleException("Failed to create directory " + docStagingDir);
+      }
+      docStagingDirs.add(docStagingDir);
+    }
+
+    try (PerformanceReport.Phase phase = report.startPhase("clientGeneration")) {
+      if (useWorkerProcess.get() || parallelGeneration.get()) {
+        // every discovery doc is a separate work item, gradle runs them concurrently
+        WorkQueue workQueue =
+            useWorkerProcess.get()
+                ? forkOptions.processIsolation(workerExecutor)
+                : workerExecutor.noIsolation();
+        // worker processes load the tool themselves
+        final EndpointsClassLoaderService classLoaderService =
+            useWorkerProcess.get() ? null : this.classLoaderService.getOrNull();
+        for (int i = 0; i < changedDiscoveryDocs.size(); i++) {
+          final EndpointsToolRequest request =
+              buildToolRequest(changedDiscoveryDocs.get(i), docStagingDirs.get(i));
+          workQueue.submit(
+              EndpointsToolWorkAction.class,
+              new Action<EndpointsToolWorkAction.Parameters>() {
+                @Override
+                public void execute(EndpointsToolWorkAction.Parameters parameters) {
+                  parameters.getRequest().set(request);
+                  parameters.getClassLoaderService().set(classLoaderService);
+                }
+              });
+        }
+        workerExecutor.await();
+      } else {
+        for (int i = 0; i < changedDiscoveryDocs.size(); i++) {
+          // client generation only reads the discovery doc, there are no dependency jars to cache
+          EndpointsToolWorkAction.run(
+              buildToolRequest(changedDiscoveryDocs.get(i), docStagingDirs.get(i)),
+              Collections.<File>emptyList(),
+              classLoaderService.getOrNull());
+        }
+      }
+    }
+
+    for (int i = 0; i < changedDiscoveryDocs.size(); i++) {
+      String path = changedDiscoveryDocs.get(i).getAbsolutePath();
+      deleteClientLibs(clientLibraryDir, clientLibs, path);
+      List<String> zipNames = new ArrayList<>();
+      File[] zips = docStagingDirs.get(i).listFiles();
+      if (zips != null) {
+        for (File zip : zips) {
+          Files.move(
+              zip.toPath(),
+              new File(clientLibraryDir, zip.getName()).toPath(),
+              StandardCopyOption.REPLACE_EXISTING);
+          zipNames.add(zip.getName());
+        }
+      }
+      clientLibs.setProperty(path, Joiner.on('\n').join(zipNames));
+    }
+    DirectorySync.deleteRecursively(stagingDir);
+    try (OutputStream out = new FileOutputStream(clientLibsFile)) {
+      clientLibs.store(out, null);
+    }
+
+    for (File discoveryDoc : allDiscoveryDocs) {
+      report.count("discoveryDocs", 1);
+      report.bytes("discoveryDocs", discoveryDoc.length());
+    }
+    report.count("unchangedDiscoveryDocs", allDiscoveryDocs.size() - changedDiscoveryDocs.size());
+    report.files("clientLibs", clientLibraryDir);
+    report.write(reportDir, getName());
+  }
+
+  // delete the zips generated from a discovery doc, unless another discovery doc generated them too
+  private static void deleteClientLibs(File clientLibraryDir, Properties clientLibs, String path)
+      throws IOException {
+    String zipNames = (String) clientLibs.remove(path);
+    if (zipNames == null) {
+      return;
+    }
+    Set<String> otherZipNames = new HashSet<>();
+    for (String otherPath : clientLibs.stringPropertyNames()) {
+      otherZipNames.addAll(ZIP_NAMES.splitToList(clientLibs.getProperty(otherPath)));
+    }
+    for (String zipName : ZIP_NAMES.split(zipNames)) {
+      if (!otherZipNames.contains(zipName)) {
+        DirectorySync.deleteRecursively(new File(clientLibraryDir, zipName));
+      }
     }
   }
 
-  private void runEndpointsTools(File discoveryDoc) throws Exception {
-    List<String> params =
-        Lists.newArrayList(
-            Arrays.asList(
-                GenClientLibAction.NAME,
-                "-l",
-                "java",
-                "-bs",
-                "gradle",
-                "-o",
-                clientLibraryDir.getAbsolutePath()));
-
-    params.add(discoveryDoc.getAbsolutePath());
-    new EndpointsTool().execute(params.toArray(new String[params.size()]));
+  private static EndpointsToolRequest buildToolRequest(File discoveryDoc, File clientLibraryDir) {
+    return EndpointsToolRequest.clientLibrary(
+        discoveryDoc.getAbsoluteFile(), clientLibraryDir.getAbsoluteFile(), "java", "gradle");
   }
 
-  private static List<File> findDiscoveryDocsInDirectory(File discoveryDocDirectory) {
+  @VisibleForTesting
+  static List<File> findDiscoveryDocsInDirectory(File discoveryDocDirectory) {
     Preconditions.checkArgument(discoveryDocDirectory.isDirectory());
 
     File[] discoveryDocs =
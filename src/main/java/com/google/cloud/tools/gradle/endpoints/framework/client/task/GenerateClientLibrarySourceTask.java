@@ -16,45 +16,92 @@
 
 package com.google.cloud.tools.gradle.endpoints.framework.client.task;
 
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import com.google.cloud.tools.gradle.endpoints.framework.util.PerformanceReport;
+import com.google.cloud.tools.gradle.endpoints.framework.util.ZipExtractor;
+import com.google.common.base.Function;
 import java.io.File;
 import java.io.FilenameFilter;
-import java.util.HashMap;
-import org.gradle.api.Action;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.inject.Inject;
 import org.gradle.api.DefaultTask;
-import org.gradle.api.file.CopySpec;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
 
-/** Task to populate a generated source folder of client lib code. */
+/**
+ * Task to populate a generated source folder of client lib code.
+ *
+ * <p>Sources whose content didn't change are not written and sources no longer in any client
+ * library are deleted, so the java compiler only sees the sources that really changed. The
+ * generation timestamp in the source headers is ignored, it changes every time a client library is
+ * generated again.
+ */
 public class GenerateClientLibrarySourceTask extends DefaultTask {
-  private File clientLibDir;
-  private File generatedSrcDir;
+  private static final String SOURCE_ROOT = "src/main/java/";
 
-  @OutputDirectory
-  public File getGeneratedSrcDir() {
-    return generatedSrcDir;
+  // the " * on 2021-01-01 at 12:00:00 UTC" line the client generator writes into each header
+  private static final Pattern GENERATION_TIMESTAMP =
+      Pattern.compile("\\s*\\* on \\d{4}-\\d{2}-\\d{2} at \\d{2}:\\d{2}:\\d{2} UTC\\s*");
+
+  // "<project dir>/src/main/java/<path>" in a client library zip to "<path>"
+  private static final Function<String, String> JAVA_SOURCES =
+      new Function<String, String>() {
+        @Override
+        public String apply(String entry) {
+          int projectDirEnd = entry.indexOf('/');
+          if (projectDirEnd < 0 || !entry.startsWith(SOURCE_ROOT, projectDirEnd + 1)) {
+            return null;
+          }
+          String path = entry.substring(projectDirEnd + 1 + SOURCE_ROOT.length());
+          return path.isEmpty() ? null : path;
+        }
+      };
+
+  private final DirectoryProperty clientLibDir;
+  private final DirectoryProperty generatedSrcDir;
+  private final DirectoryProperty reportDir;
+
+  /** Constructor. */
+  @Inject
+  public GenerateClientLibrarySourceTask(ObjectFactory objects) {
+    clientLibDir = objects.directoryProperty();
+    generatedSrcDir = objects.directoryProperty();
+    reportDir = objects.directoryProperty();
   }
 
-  public void setGeneratedSrcDir(File generatedSrcDir) {
-    this.generatedSrcDir = generatedSrcDir;
+  @OutputDirectory
+  public DirectoryProperty getGeneratedSrcDir() {
+    return generatedSrcDir;
   }
 
   @InputDirectory
-  public File getClientLibDir() {
+  public DirectoryProperty getClientLibDir() {
     return clientLibDir;
   }
 
-  public void setClientLibDir(File clientLibDir) {
-    this.clientLibDir = clientLibDir;
+  /** Where the task writes its performance report, no report is written if unset. */
+  @Internal
+  public DirectoryProperty getReportDir() {
+    return reportDir;
   }
 
   /** Task entry point. */
   @TaskAction
-  public void generateSource() {
-    boolean x = getProject().delete(generatedSrcDir);
+  public void generateSource() throws IOException {
+    PerformanceReport report = new PerformanceReport(getPath(), reportDir.isPresent());
+    File generatedSrcDir = this.generatedSrcDir.get().getAsFile();
+
     File[] zips =
-        getClientLibDir()
+        clientLibDir
+            .get()
+            .getAsFile()
             .listFiles(
                 new FilenameFilter() {
                   @Override
@@ -63,36 +110,25 @@ public class GenerateClientLibrarySourceTask extends DefaultTask {
                   }
                 });
 
-    final File tmpDir = new File(getTemporaryDir(), "endpoints-tmp");
-    getProject().delete(tmpDir);
-    getProject().mkdir(tmpDir);
-    for (final File zip : zips) {
-      // Use ant unzip, gradle unzip is having issues
-      // with strangely formed client libraries
-      getAnt()
-          .invokeMethod(
-              "unzip",
-              new HashMap<String, String>() {
-                {
-                  put("src", zip.getPath());
-                  put("dest", tmpDir.getPath());
-                }
-              });
+    // each zip is read once, its java sources are written straight into the source directory
+    ZipExtractor extractor = new ZipExtractor(generatedSrcDir, GENERATION_TIMESTAMP);
+    Set<String> sources = new HashSet<>();
+    try (PerformanceReport.Phase phase = report.startPhase("zipExtraction")) {
+      for (File zip : zips) {
+        sources.addAll(extractor.extract(zip, JAVA_SOURCES));
+      }
+    }
+    try (PerformanceReport.Phase phase = report.startPhase("staleFileRemoval")) {
+      DirectorySync.retainFiles(generatedSrcDir, sources);
     }
 
-    for (File unzippedDir : tmpDir.listFiles()) {
-      final File srcDir = new File(unzippedDir, "src/main/java");
-      if (srcDir.exists() && srcDir.isDirectory()) {
-        getProject()
-            .copy(
-                new Action<CopySpec>() {
-                  @Override
-                  public void execute(CopySpec copySpec) {
-                    copySpec.from(srcDir);
-                    copySpec.into(generatedSrcDir);
-                  }
-                });
-      }
+    for (File zip : zips) {
+      report.count("zips", 1);
+      report.bytes("zips", zip.length());
     }
+    report.count("writtenFiles", extractor.getWrittenFiles());
+    report.count("unchangedFiles", extractor.getUnchangedFiles());
+    report.files("sourceFiles", generatedSrcDir);
+    report.write(reportDir, getName());
   }
 }
@@ -16,69 +16,208 @@
 
 package com.google.cloud.tools.gradle.endpoints.framework.server;
 
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsForkOptions;
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
+import org.gradle.api.Action;
 import org.gradle.api.Project;
-
-/** Plugin extension for endpoints server plugin. */
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+
+/**
+ * Plugin extension for endpoints server plugin. Values are stored lazily, the plugin wires the
+ * {@code ...Property()} getters into its tasks so they are only read when a task that uses them is
+ * configured. The plain getters resolve the value when they are called.
+ */
 public class EndpointsServerExtension {
 
   private final Project project;
-  private final File discoveryDocDir;
-  private final File openApiDocDir;
-
-  private File clientLibDir;
-  private List<String> serviceClasses;
-  private String hostname;
-  private String basePath;
+  private final DirectoryProperty discoveryDocDir;
+  private final DirectoryProperty openApiDocDir;
+  private final DirectoryProperty clientLibDir;
+
+  private final ListProperty<String> serviceClasses;
+  private final Property<String> hostname;
+  private final Property<String> basePath;
+  private final Property<Boolean> useWorkerProcess;
+  private final Property<Boolean> scanServiceClasses;
+  private final Property<Boolean> parallelGeneration;
+  private final Property<Boolean> incrementalApis;
+  private final Property<Boolean> reproducibleDocs;
+  private final Property<Boolean> cacheClassLoaders;
+  private final Property<Boolean> performanceReports;
+  private final Property<Boolean> useArtifactsTask;
+  private final EndpointsForkOptions forkOptions;
 
   /** Constructor. */
   public EndpointsServerExtension(Project project) {
     this.project = project;
-    discoveryDocDir = new File(project.getBuildDir(), "endpointsDiscoveryDocs");
-    openApiDocDir = new File(project.getBuildDir(), "endpointsOpenApiDocs");
-    clientLibDir = new File(project.getBuildDir(), "endpointsClientLibs");
-    serviceClasses = new ArrayList<>();
+    ObjectFactory objects = project.getObjects();
+    discoveryDocDir =
+        objects
+            .directoryProperty()
+            .convention(project.getLayout().getBuildDirectory().dir("endpointsDiscoveryDocs"));
+    openApiDocDir =
+        objects
+            .directoryProperty()
+            .convention(project.getLayout().getBuildDirectory().dir("endpointsOpenApiDocs"));
+    clientLibDir =
+        objects
+            .directoryProperty()
+            .convention(project.getLayout().getBuildDirectory().dir("endpointsClientLibs"));
+    serviceClasses = objects.listProperty(String.class).empty();
+    hostname = objects.property(String.class);
+    basePath = objects.property(String.class);
+    useWorkerProcess = objects.property(Boolean.class).convention(false);
+    scanServiceClasses = objects.property(Boolean.class).convention(false);
+    parallelGeneration = objects.property(Boolean.class).convention(false);
+    incrementalApis = objects.property(Boolean.class).convention(false);
+    reproducibleDocs = objects.property(Boolean.class).convention(false);
+    cacheClassLoaders = objects.property(Boolean.class).convention(false);
+    performanceReports = objects.property(Boolean.class).convention(false);
+    useArtifactsTask = objects.property(Boolean.class).convention(false);
+    forkOptions = new EndpointsForkOptions(objects);
   }
 
   public File getDiscoveryDocDir() {
+    return discoveryDocDir.get().getAsFile();
+  }
+
+  public DirectoryProperty getDiscoveryDocDirProperty() {
     return discoveryDocDir;
   }
 
   public File getOpenApiDocDir() {
+    return openApiDocDir.get().getAsFile();
+  }
+
+  public DirectoryProperty getOpenApiDocDirProperty() {
     return openApiDocDir;
   }
 
   public File getClientLibDir() {
+    return clientLibDir.get().getAsFile();
+  }
+
+  public DirectoryProperty getClientLibDirProperty() {
     return clientLibDir;
   }
 
   public void setClientLibDir(Object clientLibDir) {
-    this.clientLibDir = project.file(clientLibDir);
+    this.clientLibDir.set(project.file(clientLibDir));
   }
 
   public List<String> getServiceClasses() {
+    return serviceClasses.get();
+  }
+
+  public ListProperty<String> getServiceClassesProperty() {
     return serviceClasses;
   }
 
   public void setServiceClasses(List<String> serviceClasses) {
-    this.serviceClasses = serviceClasses;
+    this.serviceClasses.set(serviceClasses);
+  }
+
+  public Property<Boolean> getScanServiceClasses() {
+    return scanServiceClasses;
+  }
+
+  public void setScanServiceClasses(boolean scanServiceClasses) {
+    this.scanServiceClasses.set(scanServiceClasses);
+  }
+
+  public Property<Boolean> getParallelGeneration() {
+    return parallelGeneration;
+  }
+
+  public void setParallelGeneration(boolean parallelGeneration) {
+    this.parallelGeneration.set(parallelGeneration);
+  }
+
+  public Property<Boolean> getIncrementalApis() {
+    return incrementalApis;
+  }
+
+  public void setIncrementalApis(boolean incrementalApis) {
+    this.incrementalApis.set(incrementalApis);
+  }
+
+  public Property<Boolean> getReproducibleDocs() {
+    return reproducibleDocs;
+  }
+
+  public void setReproducibleDocs(boolean reproducibleDocs) {
+    this.reproducibleDocs.set(reproducibleDocs);
+  }
+
+  /** Whether the build keeps external dependency jars open between endpoints tool runs. */
+  public Property<Boolean> getCacheClassLoaders() {
+    return cacheClassLoaders;
+  }
+
+  public void setCacheClassLoaders(boolean cacheClassLoaders) {
+    this.cacheClassLoaders.set(cacheClassLoaders);
+  }
+
+  /** Whether the tasks write performance reports to {@code build/reports/endpoints}. */
+  public Property<Boolean> getPerformanceReports() {
+    return performanceReports;
+  }
+
+  public void setPerformanceReports(boolean performanceReports) {
+    this.performanceReports.set(performanceReports);
+  }
+
+  /** Whether the published discovery doc zip is built from the endpointsArtifacts task. */
+  public Property<Boolean> getUseArtifactsTask() {
+    return useArtifactsTask;
+  }
+
+  public void setUseArtifactsTask(boolean useArtifactsTask) {
+    this.useArtifactsTask.set(useArtifactsTask);
   }
 
   public String getHostname() {
+    return hostname.getOrNull();
+  }
+
+  public Property<String> getHostnameProperty() {
     return hostname;
   }
 
   public void setHostname(String hostname) {
-    this.hostname = hostname;
+    this.hostname.set(hostname);
   }
 
   public String getBasePath() {
+    return basePath.getOrNull();
+  }
+
+  public Property<String> getBasePathProperty() {
     return basePath;
   }
 
   public void setBasePath(String basePath) {
-    this.basePath = basePath;
+    this.basePath.set(basePath);
+  }
+
+  public Property<Boolean> getUseWorkerProcess() {
+    return useWorkerProcess;
+  }
+
+  public void setUseWorkerProcess(boolean useWorkerProcess) {
+    this.useWorkerProcess.set(useWorkerProcess);
+  }
+
+  /** Options for the worker process, only used with {@code useWorkerProcess}. */
+  public EndpointsForkOptions getForkOptions() {
+    return forkOptions;
+  }
+
+  public void forkOptions(Action<? super EndpointsForkOptions> action) {
+    action.execute(forkOptions);
   }
 }
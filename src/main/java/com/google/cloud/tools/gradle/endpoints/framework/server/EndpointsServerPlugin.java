@@ -19,15 +19,37 @@ package com.google.cloud.tools.gradle.endpoints.framework.server;
 import com.google.api.server.spi.tools.GetClientLibAction;
 import com.google.api.server.spi.tools.GetDiscoveryDocAction;
 import com.google.api.server.spi.tools.GetOpenApiDocAction;
+import com.google.cloud.tools.gradle.endpoints.framework.server.processor.EndpointsApiProcessor;
+import com.google.cloud.tools.gradle.endpoints.framework.server.task.AbstractEndpointsArtifactTask;
 import com.google.cloud.tools.gradle.endpoints.framework.server.task.EndpointsArtifactTask;
+import com.google.cloud.tools.gradle.endpoints.framework.server.task.EndpointsCombinedArtifactTask;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsClassLoaderService;
+import com.google.cloud.tools.gradle.endpoints.framework.util.PerformanceReport;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import org.gradle.api.Action;
+import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Transformer;
+import org.gradle.api.artifacts.ArtifactView;
+import org.gradle.api.artifacts.DependencySet;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.file.Directory;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.plugins.JavaPluginConvention;
 import org.gradle.api.plugins.WarPluginConvention;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.bundling.Zip;
 
 /**
@@ -36,30 +58,41 @@ import org.gradle.api.tasks.bundling.Zip;
  *
  * <p>Also provides the artifact "{@value #ARTIFACT_CONFIGURATION}" that is a zip of all the
  * discovery docs that this server exposes (as defined in web.xml)
+ *
+ * <p>Tasks are registered lazily and wired to the extension with providers, nothing is created or
+ * resolved unless a task is part of the task graph.
  */
 public class EndpointsServerPlugin implements Plugin<Project> {
 
   public static final String GENERATE_OPENAPI_DOC_TASK = "endpointsOpenApiDocs";
   public static final String GENERATE_DISCOVERY_DOC_TASK = "endpointsDiscoveryDocs";
   public static final String GENERATE_CLINT_LIBS_TASK = "endpointsClientLibs";
+  public static final String GENERATE_ARTIFACTS_TASK = "endpointsArtifacts";
   public static final String SERVER_EXTENSION = "endpointsServer";
   public static final String ARTIFACT_CONFIGURATION = "endpoints";
 
   private static final String APP_ENGINE_ENDPOINTS = "App Engine Endpoints";
+  private static final String ZIP_DISCOVERY_DOCS_TASK = "_zipDiscoveryDocs";
+  private static final String PROCESSOR_REGISTRATION =
+      "META-INF/services/javax.annotation.processing.Processor";
 
   private Project project;
   private EndpointsServerExtension extension;
+  private Provider<EndpointsClassLoaderService> classLoaderService;
 
   /** Plugin entry point. */
   public void apply(Project project) {
     this.project = project;
 
     createExtension();
-    configureEndpointsArtifactTaskAdditionCallback();
+    createClassLoaderService();
+    configureAnnotationProcessor();
+    configureEndpointsArtifactTasks();
     createDiscoverDocConfiguration();
     createGenerateDiscoveryDocsTask();
     createGenerateOpenApiDocsTask();
     createGenerateClientLibsTask();
+    createGenerateArtifactsTask();
   }
 
   private void createExtension() {
@@ -67,85 +100,235 @@ public class EndpointsServerPlugin implements Plugin<Project> {
         project.getExtensions().create(SERVER_EXTENSION, EndpointsServerExtension.class, project);
   }
 
+  private void createClassLoaderService() {
+    classLoaderService = EndpointsClassLoaderService.register(project);
+  }
+
+  // the class loader service, or nothing if the project disabled class loader caching
+  private Provider<EndpointsClassLoaderService> cachedClassLoaderService() {
+    return extension
+        .getCacheClassLoaders()
+        .flatMap(
+            new Transformer<Provider<EndpointsClassLoaderService>, Boolean>() {
+              @Override
+              public Provider<EndpointsClassLoaderService> transform(Boolean cacheClassLoaders) {
+                return cacheClassLoaders
+                    ? classLoaderService
+                    : project
+                        .getProviders()
+                        .provider(
+                            new Callable<EndpointsClassLoaderService>() {
+                              @Override
+                              public EndpointsClassLoaderService call() {
+                                return null;
+                              }
+                            });
+              }
+            });
+  }
+
+  // the artifacts of external modules in a configuration, without project dependencies
+  private FileCollection externalDependencyJars(String configuration) {
+    return project
+        .getConfigurations()
+        .getByName(configuration)
+        .getIncoming()
+        .artifactView(
+            new Action<ArtifactView.ViewConfiguration>() {
+              @Override
+              public void execute(ArtifactView.ViewConfiguration view) {
+                view.componentFilter(
+                    new Spec<ComponentIdentifier>() {
+                      @Override
+                      public boolean isSatisfiedBy(ComponentIdentifier id) {
+                        return id instanceof ModuleComponentIdentifier;
+                      }
+                    });
+              }
+            })
+        .getFiles();
+  }
+
+  // scanning reads the service classes indexed while compiling, so the index processor is added to
+  // the annotation processor path whenever service classes are scanned
+  private void configureAnnotationProcessor() {
+    project
+        .getPlugins()
+        .withType(
+            JavaPlugin.class,
+            new Action<JavaPlugin>() {
+              @Override
+              public void execute(JavaPlugin javaPlugin) {
+                project
+                    .getConfigurations()
+                    .getByName(JavaPlugin.ANNOTATION_PROCESSOR_CONFIGURATION_NAME)
+                    .withDependencies(
+                        new Action<DependencySet>() {
+                          @Override
+                          public void execute(DependencySet dependencies) {
+                            if (extension.getScanServiceClasses().get()) {
+                              dependencies.add(
+                                  project
+                                      .getDependencies()
+                                      .create(project.files(annotationProcessorPath())));
+                            }
+                          }
+                        });
+              }
+            });
+  }
+
+  // the processor class and its service registration, a single jar unless running from classes
+  private static Set<File> annotationProcessorPath() {
+    Set<File> path = new LinkedHashSet<>();
+    try {
+      URL processorLocation =
+          EndpointsApiProcessor.class.getProtectionDomain().getCodeSource().getLocation();
+      path.add(new File(processorLocation.toURI()));
+      URL registration = EndpointsApiProcessor.class.getResource("/" + PROCESSOR_REGISTRATION);
+      if (registration != null && "file".equals(registration.getProtocol())) {
+        String registrationPath = new File(registration.toURI()).getPath();
+        path.add(
+            new File(
+                registrationPath.substring(
+                    0, registrationPath.length() - PROCESSOR_REGISTRATION.length())));
+      }
+    } catch (URISyntaxException ex) {
+      throw new GradleException("Unable to locate the endpoints annotation processor", ex);
+    }
+    return path;
+  }
+
   // populate common configuration for all endpoints tasks
-  private void configureEndpointsArtifactTaskAdditionCallback() {
+  private void configureEndpointsArtifactTasks() {
     project
         .getTasks()
-        .withType(EndpointsArtifactTask.class)
-        .whenTaskAdded(
-            new Action<EndpointsArtifactTask>() {
+        .withType(AbstractEndpointsArtifactTask.class)
+        .configureEach(
+            new Action<AbstractEndpointsArtifactTask>() {
               @Override
-              public void execute(final EndpointsArtifactTask task) {
-                final FileCollection classesDirs =
+              public void execute(AbstractEndpointsArtifactTask task) {
+                SourceSet mainSourceSet =
                     project
                         .getConvention()
                         .getPlugin(JavaPluginConvention.class)
                         .getSourceSets()
-                        .getByName(SourceSet.MAIN_SOURCE_SET_NAME)
-                        .getOutput()
-                        .getClassesDirs();
+                        .getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+                task.getClassesDirs().from(mainSourceSet.getOutput().getClassesDirs());
+                task.getRuntimeClasspath().from(mainSourceSet.getRuntimeClasspath());
+                task.getServiceClassIndexDir()
+                    .set(project.getLayout().getBuildDirectory().dir("endpointsServiceClassIndex"));
+                task.getReportDir()
+                    .set(PerformanceReport.reportDir(project, extension.getPerformanceReports()));
 
-                project.afterEvaluate(
-                    new Action<Project>() {
-                      @Override
-                      public void execute(Project project) {
-
-                        task.setClassesDirs(classesDirs);
-                        task.setHostname(extension.getHostname());
-                        task.setBasePath(extension.getBasePath());
-                        task.setServiceClasses(extension.getServiceClasses());
-                        task.setWebAppDir(
-                            project
-                                .getConvention()
-                                .getPlugin(WarPluginConvention.class)
-                                .getWebAppDir());
-                      }
-                    });
+                task.getHostname().set(extension.getHostnameProperty());
+                task.getBasePath().set(extension.getBasePathProperty());
+                task.getServiceClasses().set(extension.getServiceClassesProperty());
+                task.getScanServiceClasses().set(extension.getScanServiceClasses());
+                task.getCanonicalJson().set(extension.getReproducibleDocs());
+                task.getUseWorkerProcess().set(extension.getUseWorkerProcess());
+                task.getForkOptions().from(extension.getForkOptions());
+                task.usesService(classLoaderService);
+                task.getClassLoaderService().set(cachedClassLoaderService());
+                task.getExternalDependencyJars()
+                    .from(
+                        externalDependencyJars(
+                            mainSourceSet.getRuntimeClasspathConfigurationName()));
+                task.getWebAppDir()
+                    .set(
+                        project
+                            .getLayout()
+                            .dir(
+                                project.provider(
+                                    new Callable<File>() {
+                                      @Override
+                                      public File call() {
+                                        return project
+                                            .getConvention()
+                                            .getPlugin(WarPluginConvention.class)
+                                            .getWebAppDir();
+                                      }
+                                    })));
               }
             });
   }
 
   private void createDiscoverDocConfiguration() {
-    project.afterEvaluate(
-        new Action<Project>() {
-          @Override
-          public void execute(Project project) {
-            project.getConfigurations().create(ARTIFACT_CONFIGURATION);
-            Zip discoveryDocArchive = project.getTasks().create("_zipDiscoveryDocs", Zip.class);
-            discoveryDocArchive.dependsOn(GENERATE_DISCOVERY_DOC_TASK);
-            discoveryDocArchive.from(extension.getDiscoveryDocDir());
-            discoveryDocArchive
-                .getArchiveFileName()
-                .set(project.getName() + "-" + "discoveryDocs.zip");
-
-            project.getArtifacts().add(ARTIFACT_CONFIGURATION, discoveryDocArchive);
-          }
-        });
+    project.getConfigurations().create(ARTIFACT_CONFIGURATION);
+    TaskProvider<Zip> discoveryDocArchive =
+        project
+            .getTasks()
+            .register(
+                ZIP_DISCOVERY_DOCS_TASK,
+                Zip.class,
+                new Action<Zip>() {
+                  @Override
+                  public void execute(Zip discoveryDocArchive) {
+                    // the producing task is only known once the extension is configured
+                    discoveryDocArchive.from(
+                        new Callable<Provider<Directory>>() {
+                          @Override
+                          public Provider<Directory> call() {
+                            return extension.getUseArtifactsTask().get()
+                                ? artifactsDiscoveryDocDir()
+                                : discoveryDocTaskOutput();
+                          }
+                        });
+                    discoveryDocArchive
+                        .getArchiveFileName()
+                        .set(project.getName() + "-" + "discoveryDocs.zip");
+                    // identical discovery docs always produce an identical zip
+                    discoveryDocArchive.setPreserveFileTimestamps(false);
+                    discoveryDocArchive.setReproducibleFileOrder(true);
+                  }
+                });
+
+    project.getArtifacts().add(ARTIFACT_CONFIGURATION, discoveryDocArchive);
+  }
+
+  private Provider<Directory> discoveryDocTaskOutput() {
+    return project
+        .getTasks()
+        .named(GENERATE_DISCOVERY_DOC_TASK, EndpointsArtifactTask.class)
+        .flatMap(
+            new Transformer<Provider<Directory>, EndpointsArtifactTask>() {
+              @Override
+              public Provider<Directory> transform(EndpointsArtifactTask genDiscoveryDocs) {
+                return genDiscoveryDocs.getOutputDirectory();
+              }
+            });
+  }
+
+  private Provider<Directory> artifactsDiscoveryDocDir() {
+    return project
+        .getTasks()
+        .named(GENERATE_ARTIFACTS_TASK, EndpointsCombinedArtifactTask.class)
+        .flatMap(
+            new Transformer<Provider<Directory>, EndpointsCombinedArtifactTask>() {
+              @Override
+              public Provider<Directory> transform(EndpointsCombinedArtifactTask genArtifacts) {
+                return genArtifacts.getDiscoveryDocDir();
+              }
+            });
   }
 
   private void createGenerateDiscoveryDocsTask() {
     project
         .getTasks()
-        .create(
+        .register(
             GENERATE_DISCOVERY_DOC_TASK,
             EndpointsArtifactTask.class,
             new Action<EndpointsArtifactTask>() {
               @Override
-              public void execute(final EndpointsArtifactTask genDiscoveryDocs) {
+              public void execute(EndpointsArtifactTask genDiscoveryDocs) {
                 genDiscoveryDocs.setCommand(GetDiscoveryDocAction.NAME);
                 genDiscoveryDocs.setDescription("Generate endpoints discovery documents");
                 genDiscoveryDocs.setCleanBeforeRun(true);
                 genDiscoveryDocs.setGroup(APP_ENGINE_ENDPOINTS);
                 genDiscoveryDocs.dependsOn(JavaPlugin.CLASSES_TASK_NAME);
-
-                project.afterEvaluate(
-                    new Action<Project>() {
-                      @Override
-                      public void execute(Project project) {
-
-                        genDiscoveryDocs.setOutputDirectory(extension.getDiscoveryDocDir());
-                      }
-                    });
+                genDiscoveryDocs.getOutputDirectory().set(extension.getDiscoveryDocDirProperty());
+                genDiscoveryDocs.getParallelGeneration().set(extension.getParallelGeneration());
+                genDiscoveryDocs.getIncrementalApis().set(extension.getIncrementalApis());
               }
             });
   }
@@ -153,26 +336,19 @@ public class EndpointsServerPlugin implements Plugin<Project> {
   private void createGenerateOpenApiDocsTask() {
     project
         .getTasks()
-        .create(
+        .register(
             GENERATE_OPENAPI_DOC_TASK,
             EndpointsArtifactTask.class,
             new Action<EndpointsArtifactTask>() {
               @Override
-              public void execute(final EndpointsArtifactTask genOpenApiDocs) {
+              public void execute(EndpointsArtifactTask genOpenApiDocs) {
                 genOpenApiDocs.setCommand(GetOpenApiDocAction.NAME);
                 genOpenApiDocs.setDescription("Generate endpoints Open API documents");
                 genOpenApiDocs.setCleanBeforeRun(true);
                 genOpenApiDocs.setGroup(APP_ENGINE_ENDPOINTS);
                 genOpenApiDocs.dependsOn(JavaPlugin.CLASSES_TASK_NAME);
                 genOpenApiDocs.setOutputFileName("openapi.json");
-
-                project.afterEvaluate(
-                    new Action<Project>() {
-                      @Override
-                      public void execute(Project project) {
-                        genOpenApiDocs.setOutputDirectory(extension.getOpenApiDocDir());
-                      }
-                    });
+                genOpenApiDocs.getOutputDirectory().set(extension.getOpenApiDocDirProperty());
               }
             });
   }
@@ -180,12 +356,12 @@ public class EndpointsServerPlugin implements Plugin<Project> {
   private void createGenerateClientLibsTask() {
     project
         .getTasks()
-        .create(
+        .register(
             GENERATE_CLINT_LIBS_TASK,
             EndpointsArtifactTask.class,
             new Action<EndpointsArtifactTask>() {
               @Override
-              public void execute(final EndpointsArtifactTask genClientLibs) {
+              public void execute(EndpointsArtifactTask genClientLibs) {
                 genClientLibs.setCommand(GetClientLibAction.NAME);
                 genClientLibs.setDescription("Generate endpoints client libraries");
                 genClientLibs.setCleanBeforeRun(false);
@@ -193,14 +369,38 @@ public class EndpointsServerPlugin implements Plugin<Project> {
                 genClientLibs.setOutputBuildSystem("gradle");
                 genClientLibs.setGroup(APP_ENGINE_ENDPOINTS);
                 genClientLibs.dependsOn(JavaPlugin.CLASSES_TASK_NAME);
+                genClientLibs.getOutputDirectory().set(extension.getClientLibDirProperty());
+                genClientLibs.getParallelGeneration().set(extension.getParallelGeneration());
+                genClientLibs.getIncrementalApis().set(extension.getIncrementalApis());
+              }
+            });
+  }
 
-                project.afterEvaluate(
-                    new Action<Project>() {
-                      @Override
-                      public void execute(Project project) {
-                        genClientLibs.setOutputDirectory(extension.getClientLibDir());
-                      }
-                    });
+  private void createGenerateArtifactsTask() {
+    final DirectoryProperty buildDir = project.getLayout().getBuildDirectory();
+    project
+        .getTasks()
+        .register(
+            GENERATE_ARTIFACTS_TASK,
+            EndpointsCombinedArtifactTask.class,
+            new Action<EndpointsCombinedArtifactTask>() {
+              @Override
+              public void execute(EndpointsCombinedArtifactTask genArtifacts) {
+                genArtifacts.setDescription(
+                    "Generate endpoints discovery documents, Open API documents and client"
+                        + " libraries in a single pass");
+                genArtifacts.setGroup(APP_ENGINE_ENDPOINTS);
+                genArtifacts.dependsOn(JavaPlugin.CLASSES_TASK_NAME);
+                // its own outputs, so it doesn't overlap with the tasks generating one artifact
+                genArtifacts
+                    .getDiscoveryDocDir()
+                    .set(buildDir.dir(GENERATE_ARTIFACTS_TASK + "/discoveryDocs"));
+                genArtifacts
+                    .getOpenApiDocDir()
+                    .set(buildDir.dir(GENERATE_ARTIFACTS_TASK + "/openApiDocs"));
+                genArtifacts
+                    .getClientLibDir()
+                    .set(buildDir.dir(GENERATE_ARTIFACTS_TASK + "/clientLibs"));
               }
             });
   }
@@ -0,0 +1,169 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that records the endpoints service classes while they are compiled. Every
+ * concrete class annotated with {@code @Api} or {@code @ApiReference} gets a file named after it in
+ * {@value #INDEX_DIR} of the class output, containing its API as "name-version", or nothing if the
+ * name or version is left to the framework's defaults.
+ *
+ * <p>This is the compile time half of service class scanning, see {@code scanServiceClasses}: with
+ * the index, scanning doesn't read class files again. The processor doesn't generate documents, the
+ * framework builds them from loaded classes, which don't exist yet while compiling.
+ *
+ * <p>Each file only depends on its service class and the classes it inherits its configuration
+ * from, so the processor is isolating and works with Gradle's incremental compilation.
+ */
+@SupportedAnnotationTypes({EndpointsApiProcessor.API, EndpointsApiProcessor.API_REFERENCE})
+public class EndpointsApiProcessor extends AbstractProcessor {
+
+  /** Directory of the class output with a file per service class. */
+  public static final String INDEX_DIR = "META-INF/endpoints/services";
+
+  static final String API = "com.google.api.server.spi.config.Api";
+  static final String API_REFERENCE = "com.google.api.server.spi.config.ApiReference";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (TypeElement annotation : annotations) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (element.getKind() == ElementKind.CLASS
+            && !element.getModifiers().contains(Modifier.ABSTRACT)) {
+          writeIndexEntry((TypeElement) element);
+        }
+      }
+    }
+    // other processors may handle the endpoints annotations too
+    return false;
+  }
+
+  private void writeIndexEntry(TypeElement serviceClass) {
+    String binaryName = processingEnv.getElementUtils().getBinaryName(serviceClass).toString();
+    try {
+      FileObject indexEntry =
+          processingEnv
+              .getFiler()
+              .createResource(
+                  StandardLocation.CLASS_OUTPUT, "", INDEX_DIR + "/" + binaryName, serviceClass);
+      try (Writer writer = indexEntry.openWriter()) {
+        String api = readApi(serviceClass);
+        if (api != null) {
+          writer.write(api);
+        }
+      }
+    } catch (IOException ex) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              "Failed to write endpoints service class index: " + ex.getMessage(),
+              serviceClass);
+    }
+  }
+
+  // "name-version" of the API a service class belongs to, or null if it isn't fully declared
+  private static String readApi(TypeElement serviceClass) {
+    String name = null;
+    String version = null;
+    // subclasses override the configuration they inherit
+    TypeElement type = serviceClass;
+    while (type != null && (name == null || version == null)) {
+      for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+        String annotationType = annotation.getAnnotationType().toString();
+        if (API.equals(annotationType)) {
+          if (name == null) {
+            name = stringValue(annotation, "name");
+          }
+          if (version == null) {
+            version = stringValue(annotation, "version");
+          }
+        } else if (API_REFERENCE.equals(annotationType)) {
+          TypeElement referenced = typeValue(annotation, "value");
+          if (referenced != null && !referenced.equals(serviceClass)) {
+            String referencedApi = readApi(referenced);
+            return name == null && version == null ? referencedApi : null;
+          }
+        }
+      }
+      type = superclass(type);
+    }
+    return name == null || version == null ? null : name + "-" + version;
+  }
+
+  private static String stringValue(AnnotationMirror annotation, String attribute) {
+    AnnotationValue value = explicitValue(annotation, attribute);
+    if (value == null || !(value.getValue() instanceof String)) {
+      return null;
+    }
+    return (String) value.getValue();
+  }
+
+  private static TypeElement typeValue(AnnotationMirror annotation, String attribute) {
+    AnnotationValue value = explicitValue(annotation, attribute);
+    if (value == null || !(value.getValue() instanceof DeclaredType)) {
+      return null;
+    }
+    return (TypeElement) ((DeclaredType) value.getValue()).asElement();
+  }
+
+  // only values written in the source, defaults are left to the framework
+  private static AnnotationValue explicitValue(AnnotationMirror annotation, String attribute) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value :
+        annotation.getElementValues().entrySet()) {
+      if (value.getKey().getSimpleName().contentEquals(attribute)) {
+        return value.getValue();
+      }
+    }
+    return null;
+  }
+
+  private static TypeElement superclass(TypeElement type) {
+    TypeMirror superclass = type.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    return (TypeElement) ((DeclaredType) superclass).asElement();
+  }
+}
@@ -0,0 +1,373 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsClassLoaderService;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsForkOptions;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolRequest;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolWorkAction;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.gradle.api.Action;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DeleteSpec;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+/**
+ * Common configuration for tasks that introspect the server's service classes with the endpoints
+ * framework tooling.
+ */
+public abstract class AbstractEndpointsArtifactTask extends DefaultTask {
+  // the only files in the web app directory the endpoints tool reads
+  private static final String WEB_XML = "WEB-INF/web.xml";
+  private static final String APPENGINE_WEB_XML = "WEB-INF/appengine-web.xml";
+  private static final String WEB_INF_CLASSES = "WEB-INF/classes";
+  private static final String WEB_INF_LIB = "WEB-INF/lib";
+
+  private final WorkerExecutor workerExecutor;
+  private final FileSystemOperations fileSystemOperations;
+
+  // classesDir is only for detecting that the project has changed, see getApiFingerprint()
+  private final ConfigurableFileCollection classesDirs;
+  private final ConfigurableFileCollection runtimeClasspath;
+
+  // internal parameters for task configuration
+  private final Property<Boolean> useWorkerProcess;
+  private final EndpointsForkOptions forkOptions;
+  private final DirectoryProperty serviceClassIndexDir;
+  private final DirectoryProperty reportDir;
+  private final Property<EndpointsClassLoaderService> classLoaderService;
+  private final ConfigurableFileCollection externalDependencyJars;
+  private List<String> scannedServiceClasses;
+  private ToolInvocation toolInvocation;
+  private ApiFingerprint apiFingerprint;
+
+  // user facing options
+  private final Property<String> hostname;
+  private final Property<String> basePath;
+  private final ListProperty<String> serviceClasses;
+  private final Property<Boolean> scanServiceClasses;
+  private final Property<Boolean> canonicalJson;
+  private final DirectoryProperty webAppDir;
+  private final ConfigurableFileCollection webAppDescriptors;
+  private final ConfigurableFileCollection webAppClasspath;
+
+  protected AbstractEndpointsArtifactTask(
+      WorkerExecutor workerExecutor,
+      ObjectFactory objects,
+      FileSystemOperations fileSystemOperations) {
+    this.workerExecutor = workerExecutor;
+    this.fileSystemOperations = fileSystemOperations;
+
+    classesDirs = objects.fileCollection();
+    runtimeClasspath = objects.fileCollection();
+    useWorkerProcess = objects.property(Boolean.class).convention(false);
+    forkOptions = new EndpointsForkOptions(objects);
+    serviceClassIndexDir = objects.directoryProperty();
+    reportDir = objects.directoryProperty();
+    classLoaderService = objects.property(EndpointsClassLoaderService.class);
+    externalDependencyJars = objects.fileCollection();
+    hostname = objects.property(String.class);
+    basePath = objects.property(String.class);
+    serviceClasses = objects.listProperty(String.class).empty();
+    scanServiceClasses = objects.property(Boolean.class).convention(false);
+    canonicalJson = objects.property(Boolean.class).convention(false);
+    webAppDir = objects.directoryProperty();
+    webAppDescriptors =
+        objects.fileCollection().from(webAppDir.file(WEB_XML), webAppDir.file(APPENGINE_WEB_XML));
+    webAppClasspath =
+        objects
+            .fileCollection()
+            .from(
+                webAppDir.dir(WEB_INF_CLASSES),
+                objects.fileTree().from(webAppDir.dir(WEB_INF_LIB)).include("*.jar"));
+  }
+
+  @Internal
+  protected WorkerExecutor getWorkerExecutor() {
+    return workerExecutor;
+  }
+
+  @Internal
+  public ConfigurableFileCollection getClassesDirs() {
+    return classesDirs;
+  }
+
+  /** The classpath the endpoints tool loads the service classes from. */
+  @Internal
+  public ConfigurableFileCollection getRuntimeClasspath() {
+    return runtimeClasspath;
+  }
+
+  /** The runtime classpath without the project's own classes, which are tracked by ABI. */
+  @Classpath
+  public FileCollection getDependencyClasspath() {
+    return runtimeClasspath.minus(classesDirs);
+  }
+
+  /**
+   * Fingerprint of the API surface of the service classes and the project classes reachable from
+   * them, changes to method bodies or private methods don't change it.
+   */
+  @Input
+  public String getApiFingerprint() {
+    try {
+      return apiFingerprint().compute(resolveServiceClasses());
+    } catch (IOException ex) {
+      throw new GradleException("Failed to fingerprint endpoints service classes", ex);
+    }
+  }
+
+  /**
+   * The class index shared by every fingerprint of this execution, the input snapshot and the per
+   * API fingerprints then read each class file once.
+   */
+  protected ApiFingerprint apiFingerprint() {
+    if (apiFingerprint == null) {
+      apiFingerprint = new ApiFingerprint(classesDirs);
+    }
+    return apiFingerprint;
+  }
+
+  /**
+   * The web app directory passed to the endpoints tool, only its descriptors and classpath are
+   * inputs.
+   */
+  @Internal
+  public DirectoryProperty getWebAppDir() {
+    return webAppDir;
+  }
+
+  /**
+   * The web.xml and appengine-web.xml in the web app directory, the files the endpoints tool reads
+   * service classes and the application id from. Static content doesn't invalidate the task.
+   */
+  @InputFiles
+  @PathSensitive(PathSensitivity.NAME_ONLY)
+  public FileCollection getWebAppDescriptors() {
+    return webAppDescriptors;
+  }
+
+  /**
+   * WEB-INF/classes and the jars in WEB-INF/lib of the web app directory, the endpoints tool adds
+   * them to the classpath it loads the service classes from.
+   */
+  @Classpath
+  public FileCollection getWebAppClasspath() {
+    return webAppClasspath;
+  }
+
+  @Input
+  public ListProperty<String> getServiceClasses() {
+    return serviceClasses;
+  }
+
+  @Input
+  public Property<Boolean> getScanServiceClasses() {
+    return scanServiceClasses;
+  }
+
+  /** Whether generated json documents are rewritten in a canonical, reproducible form. */
+  @Input
+  public Property<Boolean> getCanonicalJson() {
+    return canonicalJson;
+  }
+
+  @Internal
+  public DirectoryProperty getServiceClassIndexDir() {
+    return serviceClassIndexDir;
+  }
+
+  /** Where the task writes its performance report, no report is written if unset. */
+  @Internal
+  public DirectoryProperty getReportDir() {
+    return reportDir;
+  }
+
+  /**
+   * The service that keeps the dependency jars open between tool runs, if unset the tool loads the
+   * whole runtime classpath itself.
+   */
+  @Internal
+  public Property<EndpointsClassLoaderService> getClassLoaderService() {
+    return classLoaderService;
+  }
+
+  /**
+   * The jars of external modules on the runtime classpath, the only jars the class loader service
+   * caches. They are part of the runtime classpath input.
+   */
+  @Internal
+  public ConfigurableFileCollection getExternalDependencyJars() {
+    return externalDependencyJars;
+  }
+
+  @Optional
+  @Input
+  public Property<String> getHostname() {
+    return hostname;
+  }
+
+  @Optional
+  @Input
+  public Property<String> getBasePath() {
+    return basePath;
+  }
+
+  @Internal
+  public Property<Boolean> getUseWorkerProcess() {
+    return useWorkerProcess;
+  }
+
+  /** Options for the worker process, only used with {@link #getUseWorkerProcess()}. */
+  @Internal
+  public EndpointsForkOptions getForkOptions() {
+    return forkOptions;
+  }
+
+  /** A work queue for a worker process with this task's fork options. */
+  protected WorkQueue processIsolation() {
+    return forkOptions.processIsolation(workerExecutor);
+  }
+
+  /**
+   * The service classes to generate artifacts for. If none are configured and scanning is enabled,
+   * these are the {@code @Api} classes found in classesDirs, otherwise an empty list makes the
+   * endpoints tool read them from web.xml.
+   */
+  protected List<String> resolveServiceClasses() {
+    List<String> configuredServiceClasses = serviceClasses.get();
+    if (!configuredServiceClasses.isEmpty() || !scanServiceClasses.get()) {
+      return configuredServiceClasses;
+    }
+    if (scannedServiceClasses == null) {
+      try {
+        File indexDir = serviceClassIndexDir.get().getAsFile();
+        scannedServiceClasses = new ServiceClassScanner(indexDir).scan(classesDirs);
+      } catch (IOException ex) {
+        throw new GradleException("Failed to scan for endpoints service classes", ex);
+      }
+    }
+    return scannedServiceClasses;
+  }
+
+  /** Run an endpoints tool request in this process. */
+  protected void executeTool(EndpointsToolRequest request) throws Exception {
+    EndpointsToolWorkAction.run(request, cachedDependencyJars(), cachingClassLoaderService());
+  }
+
+  /** The dependency jars to load from a cached class loader, empty if there is no cache. */
+  protected List<File> cachedDependencyJars() {
+    return toolInvocation().getCachedDependencyJars();
+  }
+
+  // resolved on first use, the task's inputs don't change during execution
+  private ToolInvocation toolInvocation() {
+    if (toolInvocation == null) {
+      List<File> cachedDependencyJars = new ArrayList<>();
+      if (cachingClassLoaderService() != null) {
+        // jars built in this build and directories can change between tasks, they stay on the
+        // tool's classpath
+        Set<File> externalJars = externalDependencyJars.getFiles();
+        for (File file : getDependencyClasspath()) {
+          if (file.isFile() && externalJars.contains(file)) {
+            cachedDependencyJars.add(file);
+          }
+        }
+      }
+      toolInvocation =
+          new ToolInvocation(
+              runtimeClasspath,
+              cachedDependencyJars,
+              webAppDir.get().getAsFile(),
+              hostname.getOrNull(),
+              basePath.getOrNull());
+    }
+    return toolInvocation;
+  }
+
+  /**
+   * The service caching dependency jars for tool runs in the build process, or null if jars are not
+   * cached. Worker processes always load the whole classpath.
+   */
+  protected EndpointsClassLoaderService cachingClassLoaderService() {
+    return classLoaderService.isPresent() && !useWorkerProcess.get()
+        ? classLoaderService.get()
+        : null;
+  }
+
+  /** Delete a directory and its contents if it exists and create it empty. */
+  protected void recreateDirectory(final File directory) {
+    fileSystemOperations.delete(
+        new Action<DeleteSpec>() {
+          @Override
+          public void execute(DeleteSpec deleteSpec) {
+            deleteSpec.delete(directory);
+          }
+        });
+    if (!directory.mkdirs()) {
+      throw new GradleException("Failed to create directory " + directory);
+    }
+  }
+
+  /**
+   * Build the request for an introspecting endpoints tool command.
+   *
+   * @param command the endpoints tool command name
+   * @param output the output file or directory of the action
+   * @param outputLanguage the client library language, or null
+   * @param outputBuildSystem the client library build system, or null
+   */
+  protected EndpointsToolRequest buildToolRequest(
+      String command, File output, String outputLanguage, String outputBuildSystem) {
+    return buildToolRequest(
+        command, output, outputLanguage, outputBuildSystem, resolveServiceClasses());
+  }
+
+  /**
+   * Build the request for an introspecting endpoints tool command, limited to some of the service
+   * classes.
+   */
+  protected EndpointsToolRequest buildToolRequest(
+      String command,
+      File output,
+      String outputLanguage,
+      String outputBuildSystem,
+      List<String> serviceClasses) {
+    return toolInvocation()
+        .toRequest(command, output, outputLanguage, outputBuildSystem, serviceClasses);
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
+/**
+ * Computes a fingerprint of the part of the compiled classes that can affect generated endpoints
+ * artifacts: the non-private signatures and all annotations of the service classes, and of every
+ * project class reachable from them. Method bodies and private methods are ignored, so
+ * implementation changes don't invalidate the generated artifacts.
+ *
+ * <p>Classes the framework runs while generating, transformers and other classes named by a class
+ * literal in an annotation, and the types of {@code @ApiResourceProperty} members, are hashed with
+ * their full class files instead, bodies included.
+ *
+ * <p>An instance indexes the class files once, so the fingerprints of many APIs of the same project
+ * only read each class file once.
+ */
+final class ApiFingerprint {
+
+  private static final int CLASS_READER_FLAGS =
+      ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+  private static final String API_RESOURCE_PROPERTY =
+      "Lcom/google/api/server/spi/config/ApiResourceProperty;";
+
+  // class name -> class file, indexed once
+  private final Map<String, File> classFiles = new LinkedHashMap<>();
+  // class name -> surface, each class file is read at most once however many APIs refer to it
+  private final Map<String, ApiSurfaceVisitor> surfaces = new HashMap<>();
+  // class name -> hash of the whole class file, for classes whose code affects the artifacts
+  private final Map<String, byte[]> classFileHashes = new HashMap<>();
+
+  /**
+   * Index the class files of the project.
+   *
+   * @param classesDirs directories containing the project's compiled classes
+   */
+  ApiFingerprint(Iterable<File> classesDirs) {
+    for (File classesDir : classesDirs) {
+      indexClassFiles(classesDir, "", classFiles);
+    }
+  }
+
+  /**
+   * Compute the fingerprint of some service classes.
+   *
+   * @param serviceClasses the fully qualified service class names, if empty every class in
+   *     classesDirs is treated as a service class
+   */
+  String compute(Collection<String> serviceClasses) throws IOException {
+    Deque<String> queue = new ArrayDeque<>();
+    if (serviceClasses.isEmpty()) {
+      queue.addAll(classFiles.keySet());
+    } else {
+      for (String serviceClass : serviceClasses) {
+        queue.add(serviceClass.replace('.', '/'));
+      }
+    }
+
+    // types outside of classesDirs are covered by the dependency classpath input
+    SortedMap<String, String> reachableSurfaces = new TreeMap<>();
+    Set<String> executedTypes = new TreeSet<>();
+    while (!queue.isEmpty()) {
+      String className = queue.removeFirst();
+      if (reachableSurfaces.containsKey(className) || !classFiles.containsKey(className)) {
+        continue;
+      }
+      ApiSurfaceVisitor visitor = readSurface(className);
+      reachableSurfaces.put(className, visitor.getSurface());
+      queue.addAll(visitor.getReferencedTypes());
+      executedTypes.addAll(visitor.getExecutedTypes());
+    }
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (Map.Entry<String, String> surface : reachableSurfaces.entrySet()) {
+      hasher.putString(surface.getKey(), Charsets.UTF_8);
+      hasher.putString(surface.getValue(), Charsets.UTF_8);
+    }
+    for (String className : executedTypes) {
+      if (classFiles.containsKey(className)) {
+        hasher.putString(className, Charsets.UTF_8);
+        hasher.putBytes(hashClassFile(className));
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private byte[] hashClassFile(String className) throws IOException {
+    byte[] hash = classFileHashes.get(className);
+    if (hash == null) {
+      hash = Files.asByteSource(classFiles.get(className)).hash(Hashing.sha256()).asBytes();
+      classFileHashes.put(className, hash);
+    }
+    return hash;
+  }
+
+  private ApiSurfaceVisitor readSurface(String className) throws IOException {
+    ApiSurfaceVisitor visitor = surfaces.get(className);
+    if (visitor == null) {
+      visitor = new ApiSurfaceVisitor();
+      try (InputStream classFile = new FileInputStream(classFiles.get(className))) {
+        new ClassReader(classFile).accept(visitor, CLASS_READER_FLAGS);
+      }
+      surfaces.put(className, visitor);
+    }
+    return visitor;
+  }
+
+  private static void indexClassFiles(File dir, String prefix, Map<String, File> classFiles) {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      if (child.isDirectory()) {
+        indexClassFiles(child, prefix + child.getName() + "/", classFiles);
+      } else if (child.getName().endsWith(".class")) {
+        String className = prefix + child.getName().substring(0, child.getName().length() - 6);
+        // the first classes dir wins, the same way it would on the classpath
+        if (!classFiles.containsKey(className)) {
+          classFiles.put(className, child);
+        }
+      }
+    }
+  }
+
+  /**
+   * Records the API surface of one class, the types it refers to and the types whose code the
+   * framework runs.
+   */
+  private static class ApiSurfaceVisitor extends ClassVisitor {
+    private final List<String> members = new ArrayList<>();
+    private final Set<String> referencedTypes = new HashSet<>();
+    private final Set<String> executedTypes = new HashSet<>();
+    private String header;
+
+    ApiSurfaceVisitor() {
+      super(Opcodes.ASM9);
+    }
+
+    String getSurface() {
+      Collections.sort(members);
+      StringBuilder surface = new StringBuilder(header);
+      for (String member : members) {
+        surface.append('\n').append(member);
+      }
+      return surface.toString();
+    }
+
+    Set<String> getReferencedTypes() {
+      return referencedTypes;
+    }
+
+    Set<String> getExecutedTypes() {
+      return executedTypes;
+    }
+
+    @Override
+    public void visit(
+        int version,
+        int access,
+        String name,
+        String signature,
+        String superName,
+        String[] interfaces) {
+      header =
+          access
+              + " "
+              + name
+              + " "
+              + signature
+              + " "
+              + superName
+              + " "
+              + Arrays.toString(interfaces);
+      if (superName != null) {
+        referencedTypes.add(superName);
+      }
+      if (interfaces != null) {
+        referencedTypes.addAll(Arrays.asList(interfaces));
+      }
+      addSignatureTypes(signature, false);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+      addSignatureTypes(descriptor, true);
+      return new AnnotationRecorder(new StringBuilder("@" + descriptor + "("), ")", members);
+    }
+
+    @Override
+    public FieldVisitor visitField(
+        final int access,
+        String name,
+        final String descriptor,
+        final String signature,
+        Object value) {
+      final String field =
+          "field " + access + " " + name + " " + descriptor + " " + signature + " " + value;
+      final List<String> annotations = new ArrayList<>();
+      return new FieldVisitor(Opcodes.ASM9) {
+        @Override
+        public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+          addSignatureTypes(annotationDescriptor, true);
+          return new AnnotationRecorder(
+              new StringBuilder("@" + annotationDescriptor + "("), ")", annotations);
+        }
+
+        @Override
+        public void visitEnd() {
+          // private fields only matter when they are annotated for serialization
+          if ((access & Opcodes.ACC_PRIVATE) == 0 || !annotations.isEmpty()) {
+            addSignatureTypes(descriptor, true);
+            addSignatureTypes(signature, true);
+            if (isResourceProperty(annotations)) {
+              addExecutedTypes(descriptor, true);
+              addExecutedTypes(signature, true);
+            }
+            Collections.sort(annotations);
+            members.add(field + " " + annotations);
+          }
+        }
+      };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(
+        int access, String name, String descriptor, String signature, String[] exceptions) {
+      if ((access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC)) != 0) {
+        return null;
+      }
+      addSignatureTypes(descriptor, false);
+      addSignatureTypes(signature, false);
+      final String method =
+          "method "
+              + access
+              + " "
+              + name
+              + " "
+              + descriptor
+              + " "
+              + signature
+              + " "
+              + Arrays.toString(exceptions);
+      final List<String> annotations = new ArrayList<>();
+      return new MethodVisitor(Opcodes.ASM9) {
+        @Override
+        public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+          addSignatureTypes(annotationDescriptor, true);
+          return new AnnotationRecorder(
+              new StringBuilder("@" + annotationDescriptor + "("), ")", annotations);
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(
+            int parameter, String annotationDescriptor, boolean visible) {
+          addSignatureTypes(annotationDescriptor, true);
+          return new AnnotationRecorder(
+              new StringBuilder(parameter + "@" + annotationDescriptor + "("), ")", annotations);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotationDefault() {
+          return new AnnotationRecorder(new StringBuilder("default("), ")", annotations);
+        }
+
+        @Override
+        public void visitEnd() {
+          if (isResourceProperty(annotations)) {
+            addExecutedTypes(descriptor, false);
+            addExecutedTypes(signature, false);
+          }
+          Collections.sort(annotations);
+          members.add(method + " " + annotations);
+        }
+      };
+    }
+
+    private void addSignatureTypes(String signature, boolean isTypeSignature) {
+      addSignatureTypes(signature, isTypeSignature, referencedTypes);
+    }
+
+    private void addExecutedTypes(String signature, boolean isTypeSignature) {
+      addSignatureTypes(signature, isTypeSignature, executedTypes);
+    }
+
+    private static boolean isResourceProperty(List<String> annotations) {
+      for (String annotation : annotations) {
+        if (annotation.startsWith("@" + API_RESOURCE_PROPERTY)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static void addSignatureTypes(
+        String signature, boolean isTypeSignature, final Set<String> types) {
+      if (signature == null) {
+        return;
+      }
+      SignatureVisitor collector =
+          new SignatureVisitor(Opcodes.ASM9) {
+            @Override
+            public void visitClassType(String name) {
+              types.add(name);
+            }
+          };
+      if (isTypeSignature) {
+        new SignatureReader(signature).acceptType(collector);
+      } else {
+        new SignatureReader(signature).accept(collector);
+      }
+    }
+
+    /**
+     * Writes annotation values into a string, adding it to the target list when the top level
+     * annotation ends.
+     */
+    private class AnnotationRecorder extends AnnotationVisitor {
+      private final StringBuilder record;
+      private final String suffix;
+      private final List<String> target;
+
+      AnnotationRecorder(StringBuilder record, String suffix, List<String> target) {
+        super(Opcodes.ASM9);
+        this.record = record;
+        this.suffix = suffix;
+        this.target = target;
+      }
+
+      @Override
+      public void visit(String name, Object value) {
+        if (value instanceof Type) {
+          // class literals name transformers, serializers and the like, the framework runs them
+          addSignatureTypes(((Type) value).getDescriptor(), true);
+          addExecutedTypes(((Type) value).getDescriptor(), true);
+        }
+        String valueString =
+            value.getClass().isArray()
+                ? Arrays.deepToString(new Object[] {value})
+                : String.valueOf(value);
+        record.append(name).append('=').append(valueString).append(',');
+      }
+
+      @Override
+      public void visitEnum(String name, String descriptor, String value) {
+        record.append(name).append('=').append(descriptor).append('.').append(value).append(',');
+      }
+
+      @Override
+      public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+        addSignatureTypes(descriptor, true);
+        record.append(name).append("=@").append(descriptor).append('(');
+        return new AnnotationRecorder(record, "),", null);
+      }
+
+      @Override
+      public AnnotationVisitor visitArray(String name) {
+        record.append(name).append("=[");
+        return new AnnotationRecorder(record, "],", null);
+      }
+
+      @Override
+      public void visitEnd() {
+        record.append(suffix);
+        if (target != null) {
+          target.add(record.toString());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Properties;
+
+/**
+ * Generated outputs kept per API, each in its own directory next to the fingerprint of the inputs
+ * it was generated from, so only APIs whose inputs changed have to be generated again.
+ */
+final class ApiOutputs {
+
+  private static final String FINGERPRINTS_FILE = "fingerprints.properties";
+
+  private final File dir;
+  private final Properties fingerprints = new Properties();
+
+  ApiOutputs(File dir) throws IOException {
+    this.dir = dir;
+    File fingerprintsFile = new File(dir, FINGERPRINTS_FILE);
+    if (fingerprintsFile.isFile()) {
+      try (InputStream in = new FileInputStream(fingerprintsFile)) {
+        fingerprints.load(in);
+      }
+    }
+  }
+
+  /** The output directory of an API. */
+  File getDir(String api) {
+    return new File(dir, api);
+  }
+
+  /** Whether the outputs of an API were generated from inputs with the same fingerprint. */
+  boolean isUpToDate(String api, String fingerprint) {
+    return fingerprint.equals(fingerprints.getProperty(api)) && getDir(api).isDirectory();
+  }
+
+  /** Forget the fingerprint of an API, until {@link #update} records the new one. */
+  void invalidate(String api) {
+    fingerprints.remove(api);
+  }
+
+  void update(String api, String fingerprint) {
+    fingerprints.setProperty(api, fingerprint);
+  }
+
+  /** Delete the outputs of APIs that no longer exist. */
+  void retain(Collection<String> apis) throws IOException {
+    fingerprints.keySet().retainAll(apis);
+    File[] apiDirs = dir.listFiles();
+    if (apiDirs != null) {
+      for (File apiDir : apiDirs) {
+        if (apiDir.isDirectory() && !apis.contains(apiDir.getName())) {
+          DirectorySync.deleteRecursively(apiDir);
+        }
+      }
+    }
+  }
+
+  void save() throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create directory " + dir);
+    }
+    try (OutputStream out = new FileOutputStream(new File(dir, FINGERPRINTS_FILE))) {
+      fingerprints.store(out, "input fingerprints of the generated outputs of each API");
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.DefaultIndenter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rewrites generated json documents in a canonical form: object keys sorted, two space indents and
+ * '\n' line endings on every platform. Array order is kept, it can be meaningful.
+ *
+ * <p>Large documents, like the Open API doc of a big API, are streamed: only values smaller than
+ * {@link #IN_MEMORY_LIMIT} are read into memory, larger objects are indexed by the file offsets of
+ * their members and written member by member in key order.
+ *
+ * <p>Only this rewrite is streamed. Generation is not: the endpoints tool builds every document in
+ * memory and returns it whole before it is written, so the heap generation needs still grows with
+ * the size of the document.
+ */
+final class CanonicalJson {
+
+  /** Size in bytes up to which a json value is canonicalized in memory. */
+  static final long IN_MEMORY_LIMIT = 1024 * 1024;
+
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper()
+          .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+          .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+  private static final DefaultPrettyPrinter PRETTY_PRINTER;
+  private static final ObjectWriter WRITER;
+
+  static {
+    DefaultIndenter indenter = new DefaultIndenter("  ", "\n");
+    PRETTY_PRINTER =
+        new DefaultPrettyPrinter().withObjectIndenter(indenter).withArrayIndenter(indenter);
+    WRITER = MAPPER.writer(PRETTY_PRINTER);
+  }
+
+  private CanonicalJson() {}
+
+  /** Canonicalize all discovery and json documents directly in a directory. */
+  static void canonicalizeDirectory(File dir) throws IOException {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isFile()
+          && (file.getName().endsWith(".discovery") || file.getName().endsWith(".json"))) {
+        canonicalize(file);
+      }
+    }
+  }
+
+  /** Canonicalize a single json document in place. */
+  static void canonicalize(File file) throws IOException {
+    if (file.length() <= IN_MEMORY_LIMIT) {
+      // maps and lists only, so ORDER_MAP_ENTRIES_BY_KEYS sorts every object
+      Object document = MAPPER.readValue(file, Object.class);
+      WRITER.writeValue(file, document);
+      return;
+    }
+
+    File canonicalFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    try {
+      try (JsonGenerator generator =
+          MAPPER.getFactory().createGenerator(canonicalFile, JsonEncoding.UTF8)) {
+        generator.setPrettyPrinter(PRETTY_PRINTER.createInstance());
+        writeValue(file, 0, file.length(), generator);
+      }
+      Files.move(canonicalFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(canonicalFile.toPath());
+    }
+  }
+
+  // write the json value at offset, size is only used to decide whether it fits in memory
+  private static void writeValue(File file, long offset, long size, JsonGenerator generator)
+      throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      ByteStreams.skipFully(in, offset);
+      JsonParser parser = MAPPER.getFactory().createParser(in);
+      JsonToken token = parser.nextToken();
+      if (size <= IN_MEMORY_LIMIT || token == null || !token.isStructStart()) {
+        generator.writeObject(MAPPER.readValue(parser, Object.class));
+      } else if (token == JsonToken.START_ARRAY) {
+        generator.writeStartArray();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          writeMember(file, readMember(offset, parser), generator);
+        }
+        generator.writeEndArray();
+      } else {
+        // only the locations of structured values are kept until all keys are known
+        Map<String, Object> members = new TreeMap<>();
+        while (parser.nextToken() != JsonToken.END_OBJECT) {
+          String name = parser.getCurrentName();
+          parser.nextToken();
+          members.put(name, readMember(offset, parser));
+        }
+        generator.writeStartObject();
+        for (Map.Entry<String, Object> member : members.entrySet()) {
+          generator.writeFieldName(member.getKey());
+          writeMember(file, member.getValue(), generator);
+        }
+        generator.writeEndObject();
+      }
+    }
+  }
+
+  // read a scalar value, or the location of an object or array, at the parser's current token
+  private static Object readMember(long offset, JsonParser parser) throws IOException {
+    if (!parser.getCurrentToken().isStructStart()) {
+      return MAPPER.readValue(parser, Object.class);
+    }
+    long start = parser.getTokenLocation().getByteOffset();
+    parser.skipChildren();
+    long end = parser.getCurrentLocation().getByteOffset();
+    return new Location(offset + start, end - start);
+  }
+
+  private static void writeMember(File file, Object member, JsonGenerator generator)
+      throws IOException {
+    if (member instanceof Location) {
+      Location location = (Location) member;
+      writeValue(file, location.offset, location.size, generator);
+    } else {
+      generator.writeObject(member);
+    }
+  }
+
+  private static final class Location {
+    private final long offset;
+    private final long size;
+
+    private Location(long offset, long size) {
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+}
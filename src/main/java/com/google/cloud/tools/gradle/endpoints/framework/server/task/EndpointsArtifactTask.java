@@ -16,51 +16,64 @@
 
 package com.google.cloud.tools.gradle.endpoints.framework.server.task;
 
-import com.google.api.server.spi.tools.EndpointsTool;
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsClassLoaderService;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolRequest;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolWorkAction;
+import com.google.cloud.tools.gradle.endpoints.framework.util.PerformanceReport;
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import org.gradle.api.DefaultTask;
-import org.gradle.api.file.FileCollection;
-import org.gradle.api.plugins.JavaPluginConvention;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.inject.Inject;
+import org.gradle.api.Action;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.InputDirectory;
-import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
-import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
-public class EndpointsArtifactTask extends DefaultTask {
-  // classesDir is only for detecting that the project has changed
-  private FileCollection classesDirs;
-
+@CacheableTask
+public class EndpointsArtifactTask extends AbstractEndpointsArtifactTask {
   // internal parameters for task configuration
   private String command;
   private boolean cleanBeforeRun;
   private String outputLanguage;
   private String outputBuildSystem;
   private String outputFileName;
+  private final Property<Boolean> parallelGeneration;
+  private final Property<Boolean> incrementalApis;
 
   // user facing options
-  private File outputDirectory;
-  private String hostname;
-  private String basePath;
-  private List<String> serviceClasses;
-  private File webAppDir;
-
-  @InputFiles
-  public FileCollection getClassesDirs() {
-    return classesDirs;
-  }
-
-  public void setClassesDirs(FileCollection classesDirs) {
-    this.classesDirs = classesDirs;
+  private final DirectoryProperty outputDirectory;
+
+  @Inject
+  public EndpointsArtifactTask(
+      WorkerExecutor workerExecutor,
+      ObjectFactory objects,
+      FileSystemOperations fileSystemOperations) {
+    super(workerExecutor, objects, fileSystemOperations);
+    parallelGeneration = objects.property(Boolean.class).convention(false);
+    incrementalApis = objects.property(Boolean.class).convention(false);
+    outputDirectory = objects.directoryProperty();
   }
 
-  @Internal
+  @Input
   public String getCommand() {
     return command;
   }
@@ -70,53 +83,11 @@ public class EndpointsArtifactTask extends DefaultTask {
   }
 
   @OutputDirectory
-  public File getOutputDirectory() {
+  public DirectoryProperty getOutputDirectory() {
     return outputDirectory;
   }
 
-  public void setOutputDirectory(File outputDirectory) {
-    this.outputDirectory = outputDirectory;
-  }
-
-  @InputDirectory
-  public File getWebAppDir() {
-    return webAppDir;
-  }
-
-  public void setWebAppDir(File webAppDir) {
-    this.webAppDir = webAppDir;
-  }
-
   @Input
-  public List<String> getServiceClasses() {
-    return serviceClasses;
-  }
-
-  public void setServiceClasses(List<String> serviceClasses) {
-    this.serviceClasses = serviceClasses;
-  }
-
-  @Optional
-  @Input
-  public String getHostname() {
-    return hostname;
-  }
-
-  public void setHostname(String hostname) {
-    this.hostname = hostname;
-  }
-
-  @Optional
-  @Input
-  public String getBasePath() {
-    return basePath;
-  }
-
-  public void setBasePath(String basePath) {
-    this.basePath = basePath;
-  }
-
-  @Internal
   public boolean isCleanBeforeRun() {
     return cleanBeforeRun;
   }
@@ -125,7 +96,8 @@ public class EndpointsArtifactTask extends DefaultTask {
     this.cleanBeforeRun = cleanBeforeRun;
   }
 
-  @Internal
+  @Optional
+  @Input
   public String getOutputLanguage() {
     return outputLanguage;
   }
@@ -134,7 +106,8 @@ public class EndpointsArtifactTask extends DefaultTask {
     this.outputLanguage = outputLanguage;
   }
 
-  @Internal
+  @Optional
+  @Input
   public String getOutputBuildSystem() {
     return outputBuildSystem;
   }
@@ -143,7 +116,8 @@ public class EndpointsArtifactTask extends DefaultTask {
     this.outputBuildSystem = outputBuildSystem;
   }
 
-  @Internal
+  @Optional
+  @Input
   public String getOutputFileName() {
     return outputFileName;
   }
@@ -152,59 +126,189 @@ public class EndpointsArtifactTask extends DefaultTask {
     this.outputFileName = outputFileName;
   }
 
+  @Internal
+  public Property<Boolean> getParallelGeneration() {
+    return parallelGeneration;
+  }
+
+  /**
+   * Whether each API is generated into its own directory and only generated again when its service
+   * classes or the shared inputs changed. Needs the service classes to be configured or scanned,
+   * and every one of them to declare its API name and version.
+   */
+  @Internal
+  public Property<Boolean> getIncrementalApis() {
+    return incrementalApis;
+  }
+
   /** Task entry point. */
   @TaskAction
   void generateEndpointsArtifact() throws Exception {
+    PerformanceReport report = new PerformanceReport(getPath(), getReportDir().isPresent());
 
+    // a clean run generates into a staging directory that is then synced with the output, so
+    // documents that didn't change are not rewritten
+    File outputDir = outputDirectory.get().getAsFile();
+    File generationDir = outputDir;
     if (cleanBeforeRun) {
-      getProject().delete(outputDirectory);
-      getProject().mkdir(outputDirectory);
+      generationDir = new File(getTemporaryDir(), "staging");
     }
 
-    List<String> params = new ArrayList<>();
-
-    params.add(command);
-
-    params.add("-o");
-    if (!Strings.isNullOrEmpty(outputFileName)) {
-      params.add(new File(outputDirectory, outputFileName).getAbsolutePath());
-    } else {
-      params.add(outputDirectory.getAbsolutePath());
+    List<EndpointsToolRequest> invocations = new ArrayList<>();
+    // with incremental APIs every API is generated into its own directory, null otherwise
+    ApiOutputs apiOutputs = null;
+    Map<String, String> changedApis = new TreeMap<>();
+    List<File> apiDirs = new ArrayList<>();
+    try (PerformanceReport.Phase phase = report.startPhase("classpathResolution")) {
+      List<String> serviceClasses = resolveServiceClasses();
+      report.count("serviceClasses", serviceClasses.size());
+
+      Map<String, List<String>> apis = null;
+      if ((parallelGeneration.get() || incrementalApis.get())
+          && Strings.isNullOrEmpty(outputFileName)) {
+        // each api gets its own output files, so they can be generated independently
+        apis = ServiceClassScanner.groupByApi(getClassesDirs(), serviceClasses);
+      }
+
+      if (apis != null && !apis.isEmpty() && incrementalApis.get()) {
+        apiOutputs = new ApiOutputs(new File(getTemporaryDir(), "apis"));
+        apiOutputs.retain(apis.keySet());
+        String sharedFingerprint = computeSharedFingerprint();
+        for (Map.Entry<String, List<String>> api : apis.entrySet()) {
+          File apiDir = apiOutputs.getDir(api.getKey());
+          apiDirs.add(apiDir);
+          String fingerprint =
+              Hashing.sha256()
+                  .hashString(
+                      sharedFingerprint + apiFingerprint().compute(api.getValue()), Charsets.UTF_8)
+                  .toString();
+          if (!apiOutputs.isUpToDate(api.getKey(), fingerprint)) {
+            changedApis.put(api.getKey(), fingerprint);
+            apiOutputs.invalidate(api.getKey());
+            recreateDirectory(apiDir);
+            invocations.add(
+                buildToolRequest(
+                    command, apiDir, outputLanguage, outputBuildSystem, api.getValue()));
+          }
+        }
+        // a failed generation must not leave outputs recorded as up to date
+        apiOutputs.save();
+        report.count("unchangedApis", apis.size() - changedApis.size());
+      } else {
+        if (cleanBeforeRun) {
+          recreateDirectory(generationDir);
+        }
+        if (apis != null && apis.size() > 1) {
+          for (List<String> apiServiceClasses : apis.values()) {
+            invocations.add(
+                buildToolRequest(
+                    command, generationDir, outputLanguage, outputBuildSystem, apiServiceClasses));
+          }
+        } else {
+          File output =
+              Strings.isNullOrEmpty(outputFileName)
+                  ? generationDir
+                  : new File(generationDir, outputFileName);
+          invocations.add(
+              buildToolRequest(command, output, outputLanguage, outputBuildSystem, serviceClasses));
+        }
+      }
     }
 
-    String classpath =
-        getProject()
-            .getConvention()
-            .getPlugin(JavaPluginConvention.class)
-            .getSourceSets()
-            .getByName(SourceSet.MAIN_SOURCE_SET_NAME)
-            .getRuntimeClasspath()
-            .getAsPath();
-
-    params.add("-cp");
-    params.add(classpath);
-
-    params.add("-w");
-    params.add(webAppDir.getAbsolutePath());
-
-    if (!Strings.isNullOrEmpty(outputBuildSystem)) {
-      params.add("-bs");
-      params.add(outputBuildSystem);
+    // the endpoints tool loads, introspects and serializes in a single call, so these are timed
+    // together
+    try (PerformanceReport.Phase phase = report.startPhase("introspection")) {
+      if (invocations.size() > 1 && parallelGeneration.get()) {
+        WorkQueue workQueue =
+            getUseWorkerProcess().get() ? processIsolation() : getWorkerExecutor().noIsolation();
+        for (EndpointsToolRequest request : invocations) {
+          submit(workQueue, request);
+        }
+      } else {
+        for (EndpointsToolRequest request : invocations) {
+          if (getUseWorkerProcess().get()) {
+            // run in a reusable worker daemon, so the tooling stays loaded between invocations
+            submit(processIsolation(), request);
+          } else {
+            executeTool(request);
+          }
+        }
+      }
+      getWorkerExecutor().await();
     }
-    if (!Strings.isNullOrEmpty(outputLanguage)) {
-      params.add("-l");
-      params.add(outputLanguage);
+    report.count("invocations", invocations.size());
+
+    if (apiOutputs != null) {
+      if (getCanonicalJson().get()) {
+        try (PerformanceReport.Phase phase = report.startPhase("canonicalization")) {
+          for (String api : changedApis.keySet()) {
+            CanonicalJson.canonicalizeDirectory(apiOutputs.getDir(api));
+          }
+        }
+      }
+      for (Map.Entry<String, String> api : changedApis.entrySet()) {
+        apiOutputs.update(api.getKey(), api.getValue());
+      }
+      apiOutputs.save();
+      try (PerformanceReport.Phase phase = report.startPhase("outputSync")) {
+        DirectorySync.sync(apiDirs, outputDir);
+      }
+    } else if (cleanBeforeRun) {
+      if (getCanonicalJson().get()) {
+        try (PerformanceReport.Phase phase = report.startPhase("canonicalization")) {
+          CanonicalJson.canonicalizeDirectory(generationDir);
+        }
+      }
+      try (PerformanceReport.Phase phase = report.startPhase("outputSync")) {
+        DirectorySync.sync(generationDir, outputDir);
+      }
     }
-    if (!Strings.isNullOrEmpty(hostname)) {
-      params.add("-h");
-      params.add(hostname);
+
+    report.files("outputFiles", outputDir);
+    report.write(getReportDir(), getName());
+  }
+
+  // fingerprint of everything but the service classes that goes into the generated outputs
+  private String computeSharedFingerprint() throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(
+        buildToolRequest(
+                command,
+                getTemporaryDir(),
+                outputLanguage,
+                outputBuildSystem,
+                Collections.<String>emptyList())
+            .toString(),
+        Charsets.UTF_8);
+    hasher.putBoolean(getCanonicalJson().get());
+    for (File descriptor : getWebAppDescriptors()) {
+      if (descriptor.isFile()) {
+        hasher.putString(descriptor.getName(), Charsets.UTF_8);
+        hasher.putBytes(Files.asByteSource(descriptor).hash(Hashing.sha256()).asBytes());
+      }
     }
-    if (!Strings.isNullOrEmpty(basePath)) {
-      params.add("-p");
-      params.add(basePath);
+    for (File dependency : getDependencyClasspath()) {
+      for (File file : Files.fileTraverser().depthFirstPreOrder(dependency)) {
+        hasher.putString(file.getAbsolutePath(), Charsets.UTF_8);
+        hasher.putLong(file.length());
+        hasher.putLong(file.lastModified());
+      }
     }
-    params.addAll(serviceClasses);
+    return hasher.hash().toString();
+  }
 
-    new EndpointsTool().execute(params.toArray(new String[params.size()]));
+  private void submit(WorkQueue workQueue, final EndpointsToolRequest request) {
+    final List<File> dependencyJars = cachedDependencyJars();
+    final EndpointsClassLoaderService classLoaderService = cachingClassLoaderService();
+    workQueue.submit(
+        EndpointsToolWorkAction.class,
+        new Action<EndpointsToolWorkAction.Parameters>() {
+          @Override
+          public void execute(EndpointsToolWorkAction.Parameters parameters) {
+            parameters.getRequest().set(request);
+            parameters.getDependencyJars().from(dependencyJars);
+            parameters.getClassLoaderService().set(classLoaderService);
+          }
+        });
   }
 }
@@ -0,0 +1,191 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.google.api.server.spi.tools.GetDiscoveryDocAction;
+import com.google.api.server.spi.tools.GetOpenApiDocAction;
+import com.google.cloud.tools.gradle.endpoints.framework.util.DirectorySync;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolRequest;
+import com.google.cloud.tools.gradle.endpoints.framework.util.PerformanceReport;
+import java.io.File;
+import java.util.ArrayList;
+import javax.inject.Inject;
+import org.gradle.api.Action;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkerExecutor;
+
+/**
+ * Task to generate discovery docs, Open API docs and client libraries with a single pass over the
+ * service classes. Its outputs are separate from the tasks generating a single artifact.
+ */
+@CacheableTask
+public class EndpointsCombinedArtifactTask extends AbstractEndpointsArtifactTask {
+  private static final String OPEN_API_DOC_FILE_NAME = "openapi.json";
+
+  private final DirectoryProperty discoveryDocDir;
+  private final DirectoryProperty openApiDocDir;
+  private final DirectoryProperty clientLibDir;
+  private boolean includeOpenApiDocs = true;
+  private boolean includeClientLibs = true;
+
+  @Inject
+  public EndpointsCombinedArtifactTask(
+      WorkerExecutor workerExecutor,
+      ObjectFactory objects,
+      FileSystemOperations fileSystemOperations) {
+    super(workerExecutor, objects, fileSystemOperations);
+    discoveryDocDir = objects.directoryProperty();
+    openApiDocDir = objects.directoryProperty();
+    clientLibDir = objects.directoryProperty();
+  }
+
+  @OutputDirectory
+  public DirectoryProperty getDiscoveryDocDir() {
+    return discoveryDocDir;
+  }
+
+  @Internal
+  public DirectoryProperty getOpenApiDocDir() {
+    return openApiDocDir;
+  }
+
+  @Internal
+  public DirectoryProperty getClientLibDir() {
+    return clientLibDir;
+  }
+
+  /** The Open API doc output, only declared when Open API docs are included. */
+  @Optional
+  @OutputDirectory
+  public File getOpenApiDocOutput() {
+    return includeOpenApiDocs ? openApiDocDir.get().getAsFile() : null;
+  }
+
+  /** The client library output, only declared when client libraries are included. */
+  @Optional
+  @OutputDirectory
+  public File getClientLibOutput() {
+    return includeClientLibs ? clientLibDir.get().getAsFile() : null;
+  }
+
+  @Input
+  public boolean isIncludeOpenApiDocs() {
+    return includeOpenApiDocs;
+  }
+
+  public void setIncludeOpenApiDocs(boolean includeOpenApiDocs) {
+    this.includeOpenApiDocs = includeOpenApiDocs;
+  }
+
+  @Input
+  public boolean isIncludeClientLibs() {
+    return includeClientLibs;
+  }
+
+  public void setIncludeClientLibs(boolean includeClientLibs) {
+    this.includeClientLibs = includeClientLibs;
+  }
+
+  /** Task entry point. */
+  @TaskAction
+  void generateEndpointsArtifacts() throws Exception {
+    PerformanceReport report = new PerformanceReport(getPath(), getReportDir().isPresent());
+
+    // docs are generated into staging directories that are then synced with the outputs, so
+    // documents that didn't change are not rewritten
+    final File discoveryDocStagingDir = new File(getTemporaryDir(), "discoveryDocs");
+    recreateDirectory(discoveryDocStagingDir);
+    File openApiDocStagingDir = new File(getTemporaryDir(), "openApiDocs");
+    if (includeOpenApiDocs) {
+      recreateDirectory(openApiDocStagingDir);
+    }
+
+    final EndpointsToolRequest discoveryDocRequest;
+    EndpointsToolRequest openApiDocRequest = null;
+    try (PerformanceReport.Phase phase = report.startPhase("classpathResolution")) {
+      report.count("serviceClasses", resolveServiceClasses().size());
+      discoveryDocRequest =
+          buildToolRequest(GetDiscoveryDocAction.NAME, discoveryDocStagingDir, null, null);
+      if (includeOpenApiDocs) {
+        openApiDocRequest =
+            buildToolRequest(
+                GetOpenApiDocAction.NAME,
+                new File(openApiDocStagingDir, OPEN_API_DOC_FILE_NAME),
+                null,
+                null);
+      }
+    }
+
+    // introspection, serialization and client generation all happen in the endpoints tool
+    try (PerformanceReport.Phase phase = report.startPhase("generation")) {
+      if (getUseWorkerProcess().get()) {
+        final EndpointsToolRequest finalOpenApiDocRequest = openApiDocRequest;
+        processIsolation()
+            .submit(
+                EndpointsCombinedWorkAction.class,
+                new Action<EndpointsCombinedWorkAction.Parameters>() {
+                  @Override
+                  public void execute(EndpointsCombinedWorkAction.Parameters parameters) {
+                    parameters.getDiscoveryDocRequest().set(discoveryDocRequest);
+                    parameters.getOpenApiDocRequest().set(finalOpenApiDocRequest);
+                    parameters.getDiscoveryDocDir().set(discoveryDocStagingDir);
+                    parameters.getClientLibDir().set(getClientLibOutput());
+                    parameters.getClasspath().from(getRuntimeClasspath());
+                  }
+                });
+        getWorkerExecutor().await();
+      } else {
+        EndpointsCombinedWorkAction.generate(
+            discoveryDocRequest,
+            openApiDocRequest,
+            discoveryDocStagingDir,
+            getClientLibOutput(),
+            new ArrayList<File>(getRuntimeClasspath().getFiles()));
+      }
+    }
+
+    if (getCanonicalJson().get()) {
+      try (PerformanceReport.Phase phase = report.startPhase("canonicalization")) {
+        CanonicalJson.canonicalizeDirectory(discoveryDocStagingDir);
+        CanonicalJson.canonicalizeDirectory(openApiDocStagingDir);
+      }
+    }
+    try (PerformanceReport.Phase phase = report.startPhase("outputSync")) {
+      DirectorySync.sync(discoveryDocStagingDir, discoveryDocDir.get().getAsFile());
+      if (includeOpenApiDocs) {
+        DirectorySync.sync(openApiDocStagingDir, getOpenApiDocOutput());
+      }
+    }
+
+    report.files("discoveryDocs", discoveryDocStagingDir);
+    if (includeOpenApiDocs) {
+      report.files("openApiDocs", openApiDocStagingDir);
+    }
+    if (includeClientLibs) {
+      report.files("clientLibs", getClientLibOutput());
+    }
+    report.write(getReportDir(), getName());
+  }
+}
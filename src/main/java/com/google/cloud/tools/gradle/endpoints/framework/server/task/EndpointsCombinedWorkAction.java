@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolRequest;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolWorkAction;
+import com.google.cloud.tools.gradle.endpoints.framework.util.ToolClassLoaderCache;
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Worker API action that generates all server artifacts in one go. Discovery and Open API docs are
+ * built by two tool requests that share one class loader for the whole classpath, so the service
+ * classes are loaded and their annotations parsed once. Client libraries are then generated from
+ * the discovery docs instead of introspecting the service classes again.
+ */
+public abstract class EndpointsCombinedWorkAction
+    implements WorkAction<EndpointsCombinedWorkAction.Parameters> {
+
+  /** Parameters for {@link EndpointsCombinedWorkAction}. */
+  public interface Parameters extends WorkParameters {
+    Property<EndpointsToolRequest> getDiscoveryDocRequest();
+
+    /** Absent if no Open API docs should be generated. */
+    Property<EndpointsToolRequest> getOpenApiDocRequest();
+
+    DirectoryProperty getDiscoveryDocDir();
+
+    /** Absent if no client libraries should be generated. */
+    DirectoryProperty getClientLibDir();
+
+    /** The classpath the service classes are loaded from. */
+    ConfigurableFileCollection getClasspath();
+  }
+
+  @Override
+  public void execute() {
+    Parameters parameters = getParameters();
+    try {
+      generate(
+          parameters.getDiscoveryDocRequest().get(),
+          parameters.getOpenApiDocRequest().getOrNull(),
+          parameters.getDiscoveryDocDir().get().getAsFile(),
+          parameters.getClientLibDir().isPresent()
+              ? parameters.getClientLibDir().get().getAsFile()
+              : null,
+          new ArrayList<File>(parameters.getClasspath().getFiles()));
+    } catch (Exception ex) {
+      throw new GradleException("Endpoints artifact generation failed", ex);
+    }
+  }
+
+  /**
+   * Generate discovery docs, then optionally Open API docs, and client libraries from the newly
+   * generated discovery docs.
+   *
+   * @param openApiDocRequest the Open API doc request, or null to skip Open API docs
+   * @param clientLibDir the client library output directory, or null to skip client libraries
+   * @param classpath the classpath the service classes are loaded from
+   */
+  static void generate(
+      EndpointsToolRequest discoveryDocRequest,
+      EndpointsToolRequest openApiDocRequest,
+      File discoveryDocDir,
+      File clientLibDir,
+      List<File> classpath)
+      throws Exception {
+    // the tool actions' own class loader for the request classpath delegates to this one first
+    try (ToolClassLoaderCache classLoader = new ToolClassLoaderCache(1)) {
+      classLoader.execute(classpath, discoveryDocRequest);
+      if (openApiDocRequest != null) {
+        classLoader.execute(classpath, openApiDocRequest);
+      }
+    }
+
+    if (clientLibDir != null) {
+      File[] discoveryDocs =
+          discoveryDocDir.listFiles(
+              new FileFilter() {
+                @Override
+                public boolean accept(File pathname) {
+                  return pathname.getName().endsWith(".discovery");
+                }
+              });
+      Arrays.sort(discoveryDocs);
+      for (File discoveryDoc : discoveryDocs) {
+        // client generation only reads the discovery doc, it doesn't need the classpath
+        EndpointsToolWorkAction.run(
+            EndpointsToolRequest.clientLibrary(discoveryDoc, clientLibDir, "java", "gradle"),
+            Collections.<File>emptyList(),
+            null);
+      }
+    }
+  }
+}
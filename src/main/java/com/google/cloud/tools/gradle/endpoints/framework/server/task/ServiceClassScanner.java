@@ -0,0 +1,289 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.google.cloud.tools.gradle.endpoints.framework.server.processor.EndpointsApiProcessor;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Finds endpoints service classes by reading class files without loading them. Service classes are
+ * concrete classes annotated with {@code @Api} or {@code @ApiReference}. Results are persisted in
+ * an index per classes directory, so only class files that changed since the last scan are read
+ * again. Classes directories with the index written by {@link EndpointsApiProcessor}, which the
+ * plugin runs while compiling when service classes are scanned, are not scanned at all.
+ */
+final class ServiceClassScanner {
+
+  private static final String API_DESCRIPTOR = "Lcom/google/api/server/spi/config/Api;";
+  private static final String API_REFERENCE_DESCRIPTOR =
+      "Lcom/google/api/server/spi/config/ApiReference;";
+  private static final int CLASS_READER_FLAGS =
+      ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+  private static final int NOT_SERVICE_ACCESS =
+      Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE | Opcodes.ACC_ANNOTATION;
+
+  private final File indexDir;
+
+  /** Constructor, scan results are persisted in indexDir. */
+  ServiceClassScanner(File indexDir) {
+    this.indexDir = indexDir;
+  }
+
+  /** Scan classes directories for service classes, returns the sorted class names. */
+  List<String> scan(Iterable<File> classesDirs) throws IOException {
+    TreeSet<String> serviceClasses = new TreeSet<>();
+    for (File classesDir : classesDirs) {
+      File processorIndex = new File(classesDir, EndpointsApiProcessor.INDEX_DIR);
+      String[] indexedServiceClasses = processorIndex.list();
+      if (indexedServiceClasses != null) {
+        serviceClasses.addAll(Arrays.asList(indexedServiceClasses));
+      } else if (classesDir.isDirectory()) {
+        serviceClasses.addAll(scanClassesDir(classesDir));
+      }
+    }
+    return new ArrayList<>(serviceClasses);
+  }
+
+  /**
+   * Group service classes by the name and version declared in their {@code @Api} annotation.
+   * Returns null if the API of any class can't be determined without loading it, for example when
+   * it uses {@code @ApiReference}, inherits its configuration or relies on a default name or
+   * version.
+   */
+  static Map<String, List<String>> groupByApi(
+      Iterable<File> classesDirs, List<String> serviceClasses) throws IOException {
+    Map<String, List<String>> groups = new TreeMap<>();
+    for (String serviceClass : serviceClasses) {
+      String api = readProcessorApi(classesDirs, serviceClass);
+      if (api == null) {
+        File classFile = findClassFile(classesDirs, serviceClass);
+        api = classFile == null ? null : readApi(classFile);
+      }
+      if (api == null) {
+        return null;
+      }
+      if (!groups.containsKey(api)) {
+        groups.put(api, new ArrayList<String>());
+      }
+      groups.get(api).add(serviceClass);
+    }
+    return groups;
+  }
+
+  // the api recorded by the annotation processor, or null if it didn't record one
+  private static String readProcessorApi(Iterable<File> classesDirs, String serviceClass)
+      throws IOException {
+    for (File classesDir : classesDirs) {
+      File indexEntry = new File(classesDir, EndpointsApiProcessor.INDEX_DIR + "/" + serviceClass);
+      if (indexEntry.isFile()) {
+        String api = Files.asCharSource(indexEntry, Charsets.UTF_8).read().trim();
+        return api.isEmpty() ? null : api;
+      }
+    }
+    return null;
+  }
+
+  private static File findClassFile(Iterable<File> classesDirs, String className) {
+    for (File classesDir : classesDirs) {
+      File classFile = new File(classesDir, className.replace('.', '/') + ".class");
+      if (classFile.isFile()) {
+        return classFile;
+      }
+    }
+    return null;
+  }
+
+  // returns "name-version" from the @Api annotation, or null if not declared on the class
+  private static String readApi(File classFile) throws IOException {
+    final String[] nameAndVersion = new String[2];
+    ClassVisitor visitor =
+        new ClassVisitor(Opcodes.ASM9) {
+          @Override
+          public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            if (!API_DESCRIPTOR.equals(descriptor)) {
+              return null;
+            }
+            return new AnnotationVisitor(Opcodes.ASM9) {
+              @Override
+              public void visit(String name, Object value) {
+                if ("name".equals(name)) {
+                  nameAndVersion[0] = (String) value;
+                } else if ("version".equals(name)) {
+                  nameAndVersion[1] = (String) value;
+                }
+              }
+            };
+          }
+        };
+    try (InputStream in = new FileInputStream(classFile)) {
+      new ClassReader(in).accept(visitor, CLASS_READER_FLAGS);
+    }
+    if (nameAndVersion[0] == null || nameAndVersion[1] == null) {
+      return null;
+    }
+    return nameAndVersion[0] + "-" + nameAndVersion[1];
+  }
+
+  private List<String> scanClassesDir(File classesDir) throws IOException {
+    File indexFile =
+        new File(
+            indexDir,
+            Hashing.sha256().hashString(classesDir.getCanonicalPath(), Charsets.UTF_8).toString()
+                + ".index");
+    Map<String, IndexEntry> previous = readIndex(indexFile);
+    Map<String, IndexEntry> current = new TreeMap<>();
+    walk(classesDir, "", previous, current);
+    writeIndex(indexFile, current);
+
+    List<String> serviceClasses = new ArrayList<>();
+    for (IndexEntry entry : current.values()) {
+      if (!entry.serviceClass.isEmpty()) {
+        serviceClasses.add(entry.serviceClass);
+      }
+    }
+    return serviceClasses;
+  }
+
+  private void walk(
+      File dir, String prefix, Map<String, IndexEntry> previous, Map<String, IndexEntry> current)
+      throws IOException {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      String path = prefix + child.getName();
+      if (child.isDirectory()) {
+        walk(child, path + "/", previous, current);
+      } else if (path.endsWith(".class")) {
+        IndexEntry entry = previous.get(path);
+        if (entry == null
+            || entry.lastModified != child.lastModified()
+            || entry.length != child.length()) {
+          entry = new IndexEntry(child.lastModified(), child.length(), readServiceClass(child));
+        }
+        current.put(path, entry);
+      }
+    }
+  }
+
+  // returns the class name if the class file is a service class, an empty string otherwise
+  private static String readServiceClass(File classFile) throws IOException {
+    final String[] serviceClass = {""};
+    ClassVisitor visitor =
+        new ClassVisitor(Opcodes.ASM9) {
+          private String className;
+          private boolean concrete;
+
+          @Override
+          public void visit(
+              int version,
+              int access,
+              String name,
+              String signature,
+              String superName,
+              String[] interfaces) {
+            className = name.replace('/', '.');
+            concrete = (access & NOT_SERVICE_ACCESS) == 0;
+          }
+
+          @Override
+          public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            if (concrete
+                && (API_DESCRIPTOR.equals(descriptor)
+                    || API_REFERENCE_DESCRIPTOR.equals(descriptor))) {
+              serviceClass[0] = className;
+            }
+            return null;
+          }
+        };
+    try (InputStream in = new FileInputStream(classFile)) {
+      new ClassReader(in).accept(visitor, CLASS_READER_FLAGS);
+    }
+    return serviceClass[0];
+  }
+
+  private static Map<String, IndexEntry> readIndex(File indexFile) throws IOException {
+    Map<String, IndexEntry> index = new HashMap<>();
+    if (!indexFile.isFile()) {
+      return index;
+    }
+    for (String line : Files.readLines(indexFile, Charsets.UTF_8)) {
+      List<String> fields = Splitter.on('\t').splitToList(line);
+      if (fields.size() != 4) {
+        // unreadable index, scan everything again
+        return new HashMap<>();
+      }
+      long lastModified = Long.parseLong(fields.get(1));
+      long length = Long.parseLong(fields.get(2));
+      index.put(fields.get(0), new IndexEntry(lastModified, length, fields.get(3)));
+    }
+    return index;
+  }
+
+  private static void writeIndex(File indexFile, Map<String, IndexEntry> index) throws IOException {
+    StringBuilder contents = new StringBuilder();
+    for (Map.Entry<String, IndexEntry> entry : index.entrySet()) {
+      contents
+          .append(entry.getKey())
+          .append('\t')
+          .append(entry.getValue().lastModified)
+          .append('\t')
+          .append(entry.getValue().length)
+          .append('\t')
+          .append(entry.getValue().serviceClass)
+          .append('\n');
+    }
+    // write then move, so a concurrent reader never sees a partial index
+    Files.createParentDirs(indexFile);
+    File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+    Files.asCharSink(tmpFile, Charsets.UTF_8).write(contents);
+    java.nio.file.Files.move(
+        tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static class IndexEntry {
+    private final long lastModified;
+    private final long length;
+    private final String serviceClass;
+
+    IndexEntry(long lastModified, long length, String serviceClass) {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.serviceClass = serviceClass;
+    }
+  }
+}
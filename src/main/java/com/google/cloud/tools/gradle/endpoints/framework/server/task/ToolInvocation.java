@@ -0,0 +1,99 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsClassLoaderService;
+import com.google.cloud.tools.gradle.endpoints.framework.util.EndpointsToolRequest;
+import com.google.common.base.Strings;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The options shared by every endpoints tool request of a task execution, resolved once. The
+ * classpath stays a list of files, the tool actions are called with it as URLs through their Java
+ * API, see {@link EndpointsToolRequest}.
+ */
+final class ToolInvocation {
+
+  private final List<File> cachedDependencyJars;
+  private final List<File> classpath;
+  private final File webAppDir;
+  private final String hostname;
+  private final String basePath;
+
+  /**
+   * Constructor.
+   *
+   * @param runtimeClasspath the classpath the service classes are loaded from
+   * @param cachedDependencyJars the part of the runtime classpath that is loaded from a cached
+   *     class loader instead, see {@link EndpointsClassLoaderService}
+   */
+  ToolInvocation(
+      Iterable<File> runtimeClasspath,
+      List<File> cachedDependencyJars,
+      File webAppDir,
+      String hostname,
+      String basePath) {
+    this.cachedDependencyJars = Collections.unmodifiableList(cachedDependencyJars);
+    Set<File> cached = new HashSet<>(cachedDependencyJars);
+    List<File> classpathEntries = new ArrayList<>();
+    for (File file : runtimeClasspath) {
+      if (!cached.contains(file)) {
+        classpathEntries.add(file.getAbsoluteFile());
+      }
+    }
+    this.classpath = Collections.unmodifiableList(classpathEntries);
+    this.webAppDir = webAppDir;
+    this.hostname = Strings.emptyToNull(hostname);
+    this.basePath = Strings.emptyToNull(basePath);
+  }
+
+  List<File> getCachedDependencyJars() {
+    return cachedDependencyJars;
+  }
+
+  /**
+   * Build the request for an introspecting endpoints tool command.
+   *
+   * @param command the endpoints tool command name
+   * @param output the output file or directory of the action
+   * @param outputLanguage the client library language, or null
+   * @param outputBuildSystem the client library build system, or null
+   * @param serviceClasses the service classes, if empty they are read from web.xml
+   */
+  EndpointsToolRequest toRequest(
+      String command,
+      File output,
+      String outputLanguage,
+      String outputBuildSystem,
+      List<String> serviceClasses) {
+    return EndpointsToolRequest.introspect(
+        command,
+        output.getAbsoluteFile(),
+        classpath,
+        webAppDir.getAbsoluteFile(),
+        serviceClasses,
+        hostname,
+        basePath,
+        Strings.emptyToNull(outputLanguage),
+        Strings.emptyToNull(outputBuildSystem));
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Makes a target directory match a source directory, only writing files whose content differs and
+ * deleting files that are not in the source. Unchanged files keep their bytes and timestamps, so
+ * consumers of the target directory only see real changes.
+ */
+public final class DirectorySync {
+
+  private DirectorySync() {}
+
+  /** Sync target with the contents of source. */
+  public static void sync(File source, File target) throws IOException {
+    sync(Collections.singletonList(source), target);
+  }
+
+  /** Sync target with the combined contents of several sources, later sources win. */
+  public static void sync(List<File> sources, File target) throws IOException {
+    Set<String> sourcePaths = new HashSet<>();
+    for (File source : sources) {
+      copyChanged(source, target, "", sourcePaths);
+    }
+    deleteRemoved(target, "", sourcePaths);
+  }
+
+  /**
+   * Delete every file in target that is not in a set of relative paths, and the directories left
+   * empty.
+   *
+   * @param filePaths '/' separated paths relative to target
+   */
+  public static void retainFiles(File target, Set<String> filePaths) throws IOException {
+    retainFiles(target, "", filePaths);
+  }
+
+  /**
+   * Write a file only if its content differs from the existing file.
+   *
+   * @return true if the target file was written
+   */
+  public static boolean copyIfChanged(File source, File target) throws IOException {
+    if (target.isFile() && Files.equal(source, target)) {
+      return false;
+    }
+    Files.createParentDirs(target);
+    Files.copy(source, target);
+    return true;
+  }
+
+  private static void copyChanged(File source, File target, String prefix, Set<String> sourcePaths)
+      throws IOException {
+    File[] children = source.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      String path = prefix + child.getName();
+      sourcePaths.add(path);
+      File targetChild = new File(target, child.getName());
+      if (child.isDirectory()) {
+        if (targetChild.isFile() && !targetChild.delete()) {
+          throw new IOException("Could not delete " + targetChild);
+        }
+        copyChanged(child, targetChild, path + "/", sourcePaths);
+      } else {
+        if (targetChild.isDirectory()) {
+          deleteRecursively(targetChild);
+        }
+        copyIfChanged(child, targetChild);
+      }
+    }
+  }
+
+  private static void deleteRemoved(File target, String prefix, Set<String> sourcePaths)
+      throws IOException {
+    File[] children = target.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      String path = prefix + child.getName();
+      if (!sourcePaths.contains(path)) {
+        deleteRecursively(child);
+      } else if (child.isDirectory()) {
+        deleteRemoved(child, path + "/", sourcePaths);
+      }
+    }
+  }
+
+  private static void retainFiles(File dir, String prefix, Set<String> filePaths)
+      throws IOException {
+    File[] children = dir.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      String path = prefix + child.getName();
+      if (child.isDirectory()) {
+        retainFiles(child, path + "/", filePaths);
+        String[] remaining = child.list();
+        if (remaining != null && remaining.length == 0 && !child.delete()) {
+          throw new IOException("Could not delete " + child);
+        }
+      } else if (!filePaths.contains(path)) {
+        deleteRecursively(child);
+      }
+    }
+  }
+
+  /** Delete a file, or a directory and everything in it. */
+  public static void deleteRecursively(File file) throws IOException {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Could not delete " + file);
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.api.services.BuildServiceSpec;
+
+/**
+ * Shared build service that runs the endpoints tool with the external dependency jars of the
+ * runtime classpath in a cached class loader, so the tasks of a build don't reopen the same jars.
+ * Gradle closes the service at the end of the build, which closes every cached class loader.
+ */
+public abstract class EndpointsClassLoaderService
+    implements BuildService<EndpointsClassLoaderService.Parameters>, AutoCloseable {
+
+  /** Parameters for {@link EndpointsClassLoaderService}. */
+  public interface Parameters extends BuildServiceParameters {
+    /** The number of dependency class loaders kept open, least recently used are closed first. */
+    Property<Integer> getMaxCachedClassLoaders();
+  }
+
+  private static final String NAME = "endpointsClassLoaders";
+  private static final int MAX_CACHED_CLASS_LOADERS = 8;
+
+  private ToolClassLoaderCache cache;
+
+  /**
+   * The service of the build, registered by the first project asking for it. One service serves all
+   * projects, so projects with the same dependencies share jars.
+   */
+  public static Provider<EndpointsClassLoaderService> register(Project project) {
+    return project
+        .getGradle()
+        .getSharedServices()
+        .registerIfAbsent(
+            NAME,
+            EndpointsClassLoaderService.class,
+            new Action<BuildServiceSpec<Parameters>>() {
+              @Override
+              public void execute(BuildServiceSpec<Parameters> spec) {
+                spec.getParameters().getMaxCachedClassLoaders().set(MAX_CACHED_CLASS_LOADERS);
+              }
+            });
+  }
+
+  /**
+   * Run an endpoints tool request in this process.
+   *
+   * @param dependencyJars the jars to load from a cached class loader
+   * @param request the request, its classpath only needs the remaining classpath entries
+   */
+  public void execute(List<File> dependencyJars, EndpointsToolRequest request) throws Exception {
+    cache().execute(dependencyJars, request);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (cache != null) {
+      cache.close();
+    }
+  }
+
+  private synchronized ToolClassLoaderCache cache() {
+    if (cache == null) {
+      cache = new ToolClassLoaderCache(getParameters().getMaxCachedClassLoaders().get());
+    }
+    return cache;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import com.google.common.base.Strings;
+import java.util.List;
+import org.gradle.api.Action;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.process.JavaForkOptions;
+import org.gradle.workers.ProcessWorkerSpec;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+/**
+ * Options for the worker process the endpoints tool runs in, so generation for large APIs can get
+ * its own memory budget instead of sharing the Gradle daemon's heap.
+ */
+public class EndpointsForkOptions {
+
+  private final Property<String> maxHeapSize;
+  private final ListProperty<String> jvmArgs;
+  private final Property<String> garbageCollector;
+
+  /** Constructor. */
+  public EndpointsForkOptions(ObjectFactory objects) {
+    maxHeapSize = objects.property(String.class);
+    jvmArgs = objects.listProperty(String.class).empty();
+    garbageCollector = objects.property(String.class);
+  }
+
+  /** Maximum heap of the worker process, like {@code 2g}. */
+  public Property<String> getMaxHeapSize() {
+    return maxHeapSize;
+  }
+
+  public void setMaxHeapSize(String maxHeapSize) {
+    this.maxHeapSize.set(maxHeapSize);
+  }
+
+  /** Additional JVM arguments of the worker process. */
+  public ListProperty<String> getJvmArgs() {
+    return jvmArgs;
+  }
+
+  public void setJvmArgs(List<String> jvmArgs) {
+    this.jvmArgs.set(jvmArgs);
+  }
+
+  /** The garbage collector of the worker process, like {@code G1} or {@code Parallel}. */
+  public Property<String> getGarbageCollector() {
+    return garbageCollector;
+  }
+
+  public void setGarbageCollector(String garbageCollector) {
+    this.garbageCollector.set(garbageCollector);
+  }
+
+  /** Use the values of other options, typically of an extension. */
+  public void from(EndpointsForkOptions other) {
+    maxHeapSize.set(other.getMaxHeapSize());
+    jvmArgs.set(other.getJvmArgs());
+    garbageCollector.set(other.getGarbageCollector());
+  }
+
+  /** A work queue for a worker process with these options. */
+  public WorkQueue processIsolation(WorkerExecutor workerExecutor) {
+    return workerExecutor.processIsolation(
+        new Action<ProcessWorkerSpec>() {
+          @Override
+          public void execute(ProcessWorkerSpec spec) {
+            spec.forkOptions(
+                new Action<JavaForkOptions>() {
+                  @Override
+                  public void execute(JavaForkOptions javaForkOptions) {
+                    applyTo(javaForkOptions);
+                  }
+                });
+          }
+        });
+  }
+
+  /** Apply these options to the fork options of a worker process. */
+  public void applyTo(JavaForkOptions forkOptions) {
+    if (!Strings.isNullOrEmpty(maxHeapSize.getOrNull())) {
+      forkOptions.setMaxHeapSize(maxHeapSize.get());
+    }
+    if (!Strings.isNullOrEmpty(garbageCollector.getOrNull())) {
+      forkOptions.jvmArgs("-XX:+Use" + garbageCollector.get() + "GC");
+    }
+    forkOptions.jvmArgs(jvmArgs.get());
+  }
+}
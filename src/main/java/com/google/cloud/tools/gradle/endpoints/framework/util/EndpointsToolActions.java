@@ -0,0 +1,134 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import com.google.api.server.spi.tools.AppEngineUtil;
+import com.google.api.server.spi.tools.GenClientLibAction;
+import com.google.api.server.spi.tools.GetClientLibAction;
+import com.google.api.server.spi.tools.GetDiscoveryDocAction;
+import com.google.api.server.spi.tools.GetOpenApiDocAction;
+import com.google.api.server.spi.tools.WebXml;
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs endpoints tool actions through their Java API, with the classpath as URLs and the options as
+ * they are, instead of a command line the tool parses again. The options left unset get the same
+ * defaults as on the command line.
+ *
+ * <p>{@link ToolClassLoaderCache} loads this class next to the tool classes it caches and calls it
+ * reflectively, so it only uses public members of the other plugin classes.
+ */
+public final class EndpointsToolActions {
+
+  // the command line's defaults
+  private static final String DEFAULT_HOSTNAME = "myapi.appspot.com";
+  private static final String DEFAULT_BASE_PATH = "/_ah/api";
+
+  private EndpointsToolActions() {}
+
+  /** Run a request with the tool classes of this class's class loader. */
+  public static void run(EndpointsToolRequest request) throws Exception {
+    String command = request.getCommand();
+    if (GenClientLibAction.NAME.equals(command)) {
+      new GenClientLibAction()
+          .genClientLibFromFile(
+              request.getLanguage(),
+              request.getOutput().getAbsolutePath(),
+              request.getDiscoveryDoc().getAbsolutePath(),
+              request.getBuildSystem());
+      return;
+    }
+
+    List<String> serviceClasses = resolveServiceClasses(request);
+    if (serviceClasses.isEmpty()) {
+      // like the command line, there is nothing to generate
+      return;
+    }
+    URL[] classpath = toUrls(request);
+    String output = request.getOutput().getAbsolutePath();
+    String hostname = resolveHostname(request);
+    String basePath = request.getBasePath() != null ? request.getBasePath() : DEFAULT_BASE_PATH;
+    if (GetDiscoveryDocAction.NAME.equals(command)) {
+      new GetDiscoveryDocAction()
+          .getDiscoveryDoc(classpath, output, serviceClasses, hostname, basePath, true);
+    } else if (GetOpenApiDocAction.NAME.equals(command)) {
+      new GetOpenApiDocAction()
+          .genOpenApiDoc(classpath, output, hostname, basePath, serviceClasses, true);
+    } else if (GetClientLibAction.NAME.equals(command)) {
+      new GetClientLibAction()
+          .getClientLib(
+              classpath,
+              request.getLanguage(),
+              output,
+              serviceClasses,
+              request.getBuildSystem(),
+              hostname,
+              basePath,
+              false);
+    } else {
+      throw new IllegalArgumentException("Unknown endpoints tool command " + command);
+    }
+  }
+
+  private static List<String> resolveServiceClasses(EndpointsToolRequest request) {
+    if (!request.getServiceClasses().isEmpty()) {
+      return request.getServiceClasses();
+    }
+    File webXml = new File(request.getWebAppDir(), "WEB-INF/web.xml");
+    if (!webXml.isFile()) {
+      return Collections.emptyList();
+    }
+    try {
+      return WebXml.parse(webXml).endpointsServiceClasses();
+    } catch (Exception ex) {
+      // the command line treats a web.xml it can't parse as one without service classes
+      return Collections.emptyList();
+    }
+  }
+
+  private static String resolveHostname(EndpointsToolRequest request) {
+    if (request.getHostname() != null) {
+      return request.getHostname();
+    }
+    String applicationHostname =
+        AppEngineUtil.getApplicationDefaultHostname(request.getWebAppDir().getAbsolutePath());
+    return applicationHostname != null ? applicationHostname : DEFAULT_HOSTNAME;
+  }
+
+  // the web app's classes and jars come first, as on the command line
+  private static URL[] toUrls(EndpointsToolRequest request) throws Exception {
+    List<URL> urls = new ArrayList<>();
+    File webInf = new File(request.getWebAppDir().getAbsoluteFile(), "WEB-INF");
+    urls.add(new File(webInf, "classes").toURI().toURL());
+    File[] libs = new File(webInf, "lib").listFiles();
+    if (libs != null) {
+      for (File lib : libs) {
+        if (lib.isFile() && lib.getName().endsWith(".jar")) {
+          urls.add(lib.toURI().toURL());
+        }
+      }
+    }
+    for (File file : request.getClasspath()) {
+      urls.add(file.toURI().toURL());
+    }
+    return urls.toArray(new URL[urls.size()]);
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import com.google.api.server.spi.tools.GenClientLibAction;
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One run of an endpoints tool action, with its files and options as they are instead of a command
+ * line. Requests are serializable, so they are passed to worker processes as they are, and run by
+ * {@link EndpointsToolActions}.
+ */
+public final class EndpointsToolRequest implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String command;
+  private final File output;
+  private final List<File> classpath;
+  private final File webAppDir;
+  private final List<String> serviceClasses;
+  private final String hostname;
+  private final String basePath;
+  private final String language;
+  private final String buildSystem;
+  private final File discoveryDoc;
+
+  private EndpointsToolRequest(
+      String command,
+      File output,
+      List<File> classpath,
+      File webAppDir,
+      List<String> serviceClasses,
+      String hostname,
+      String basePath,
+      String language,
+      String buildSystem,
+      File discoveryDoc) {
+    this.command = command;
+    this.output = output;
+    this.classpath = Collections.unmodifiableList(new ArrayList<>(classpath));
+    this.webAppDir = webAppDir;
+    this.serviceClasses = Collections.unmodifiableList(new ArrayList<>(serviceClasses));
+    this.hostname = hostname;
+    this.basePath = basePath;
+    this.language = language;
+    this.buildSystem = buildSystem;
+    this.discoveryDoc = discoveryDoc;
+  }
+
+  /**
+   * A request for an action that introspects the service classes.
+   *
+   * @param command the name of the discovery doc, Open API doc or client library action
+   * @param output the output directory, or the output file of an Open API doc
+   * @param classpath the classpath the service classes are loaded from, after the web app's
+   *     WEB-INF/classes and WEB-INF/lib jars
+   * @param serviceClasses the service classes, if empty they are read from the web app's web.xml
+   * @param hostname the hostname, or null for the application's default hostname
+   * @param basePath the base path, or null for the framework's default
+   * @param language the client library language, or null for documents
+   * @param buildSystem the client library build system, or null for documents
+   */
+  public static EndpointsToolRequest introspect(
+      String command,
+      File output,
+      List<File> classpath,
+      File webAppDir,
+      List<String> serviceClasses,
+      String hostname,
+      String basePath,
+      String language,
+      String buildSystem) {
+    return new EndpointsToolRequest(
+        command,
+        output,
+        classpath,
+        webAppDir,
+        serviceClasses,
+        hostname,
+        basePath,
+        language,
+        buildSystem,
+        null);
+  }
+
+  /** A request to generate a client library from a discovery doc. */
+  public static EndpointsToolRequest clientLibrary(
+      File discoveryDoc, File outputDir, String language, String buildSystem) {
+    return new EndpointsToolRequest(
+        GenClientLibAction.NAME,
+        outputDir,
+        Collections.<File>emptyList(),
+        null,
+        Collections.<String>emptyList(),
+        null,
+        null,
+        language,
+        buildSystem,
+        discoveryDoc);
+  }
+
+  public String getCommand() {
+    return command;
+  }
+
+  public File getOutput() {
+    return output;
+  }
+
+  public List<File> getClasspath() {
+    return classpath;
+  }
+
+  public File getWebAppDir() {
+    return webAppDir;
+  }
+
+  public List<String> getServiceClasses() {
+    return serviceClasses;
+  }
+
+  public String getHostname() {
+    return hostname;
+  }
+
+  public String getBasePath() {
+    return basePath;
+  }
+
+  public String getLanguage() {
+    return language;
+  }
+
+  public String getBuildSystem() {
+    return buildSystem;
+  }
+
+  public File getDiscoveryDoc() {
+    return discoveryDoc;
+  }
+
+  /** Every option of the request, also used to fingerprint the options shared by requests. */
+  @Override
+  public String toString() {
+    return command
+        + " output="
+        + output
+        + " classpath="
+        + classpath
+        + " webAppDir="
+        + webAppDir
+        + " serviceClasses="
+        + serviceClasses
+        + " hostname="
+        + hostname
+        + " basePath="
+        + basePath
+        + " language="
+        + language
+        + " buildSystem="
+        + buildSystem
+        + " discoveryDoc="
+        + discoveryDoc;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Worker API action that runs a single {@link EndpointsToolRequest}. When submitted with process
+ * isolation, the worker daemon is kept alive by gradle and reused by later invocations, so the
+ * framework tooling is already loaded and warmed up.
+ */
+public abstract class EndpointsToolWorkAction
+    implements WorkAction<EndpointsToolWorkAction.Parameters> {
+
+  /** Parameters for {@link EndpointsToolWorkAction}. */
+  public interface Parameters extends WorkParameters {
+    /** The request to run. */
+    Property<EndpointsToolRequest> getRequest();
+
+    /** Dependency jars to load from a cached class loader, see {@link ToolClassLoaderCache}. */
+    ConfigurableFileCollection getDependencyJars();
+
+    /**
+     * The service caching the dependency jars, absent if the tool should load its whole classpath
+     * from the arguments. Only set for actions that run in the build process.
+     */
+    Property<EndpointsClassLoaderService> getClassLoaderService();
+  }
+
+  @Override
+  public void execute() {
+    Parameters parameters = getParameters();
+    EndpointsToolRequest request = parameters.getRequest().get();
+    try {
+      run(
+          request,
+          new ArrayList<File>(parameters.getDependencyJars().getFiles()),
+          parameters.getClassLoaderService().getOrNull());
+    } catch (Exception ex) {
+      throw new GradleException("Endpoints tool failed running " + request.getCommand(), ex);
+    }
+  }
+
+  /**
+   * Run an endpoints tool request in this process.
+   *
+   * @param dependencyJars the jars the class loader service loads, they are not on the classpath of
+   *     the request
+   * @param classLoaderService the service caching the dependency jars, or null to not cache them
+   */
+  public static void run(
+      EndpointsToolRequest request,
+      List<File> dependencyJars,
+      EndpointsClassLoaderService classLoaderService)
+      throws Exception {
+    if (classLoaderService == null) {
+      EndpointsToolActions.run(request);
+    } else {
+      classLoaderService.execute(dependencyJars, request);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.Project;
+import org.gradle.api.Transformer;
+import org.gradle.api.file.Directory;
+import org.gradle.api.provider.Provider;
+
+/**
+ * Phase timings, counts and byte sizes of a single task execution, written as json to {@code
+ * <reportDir>/<taskName>.json} so they can be collected and compared across builds. Reports are
+ * opt-in, a disabled report doesn't walk the output directories.
+ *
+ * <p>A report is not a task output. It describes one execution, so the build cache must not restore
+ * it into another build and it must not change what the cache stores. A task that is up to date or
+ * restored from the cache writes no report.
+ */
+public final class PerformanceReport {
+
+  /** Report directory relative to the build directory. */
+  public static final String REPORT_DIR = "reports/endpoints";
+
+  private static final ObjectMapper MAPPER =
+      new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+  private final String taskPath;
+  private final boolean enabled;
+  private final long startTimeMillis = System.currentTimeMillis();
+  private final long startNanos = System.nanoTime();
+  private final List<Map<String, Object>> phases = new ArrayList<>();
+  private final Map<String, Long> counts = new LinkedHashMap<>();
+  private final Map<String, Long> bytes = new LinkedHashMap<>();
+
+  /**
+   * The report directory of a project, only has a value if reports are enabled so tasks neither
+   * measure nor declare a report otherwise.
+   */
+  public static Provider<Directory> reportDir(
+      final Project project, Provider<Boolean> performanceReports) {
+    return performanceReports.flatMap(
+        new Transformer<Provider<Directory>, Boolean>() {
+          @Override
+          public Provider<Directory> transform(Boolean enabled) {
+            return enabled
+                ? project.getLayout().getBuildDirectory().dir(REPORT_DIR)
+                : project.getObjects().directoryProperty();
+          }
+        });
+  }
+
+  public PerformanceReport(String taskPath, boolean enabled) {
+    this.taskPath = taskPath;
+    this.enabled = enabled;
+  }
+
+  /**
+   * Start timing a phase, the phase is recorded when it is closed. Phases with the same name are
+   * recorded separately.
+   */
+  public Phase startPhase(String name) {
+    return new Phase(name);
+  }
+
+  /** Add to a named count, e.g. the number of documents generated. */
+  public void count(String name, long value) {
+    Long current = counts.get(name);
+    counts.put(name, current == null ? value : current + value);
+  }
+
+  /** Add to a named byte size, e.g. the size of the generated documents. */
+  public void bytes(String name, long value) {
+    Long current = bytes.get(name);
+    bytes.put(name, current == null ? value : current + value);
+  }
+
+  /**
+   * Add the number and total size of the files in a directory, recursively, to the count and byte
+   * size of that name. The directory is only walked if the report is enabled.
+   */
+  public void files(String name, File directory) {
+    if (!enabled) {
+      return;
+    }
+    long count = 0;
+    long size = 0;
+    for (File file : Files.fileTraverser().depthFirstPreOrder(directory)) {
+      if (file.isFile()) {
+        count++;
+        size += file.length();
+      }
+    }
+    count(name, count);
+    bytes(name, size);
+  }
+
+  /**
+   * Write the report to {@code <reportDir>/<taskName>.json}, replacing an earlier report. Nothing
+   * is written if the report directory is unset.
+   */
+  public void write(Provider<Directory> reportDir, String taskName) throws IOException {
+    if (reportDir.isPresent()) {
+      write(reportDir.get().getAsFile(), taskName);
+    }
+  }
+
+  private void write(File reportDir, String taskName) throws IOException {
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("task", taskPath);
+    report.put("startTime", startTimeMillis);
+    report.put("durationMillis", elapsedMillis(startNanos));
+    report.put("phases", phases);
+    report.put("counts", counts);
+    report.put("bytes", bytes);
+
+    File reportFile = new File(reportDir, taskName + ".json");
+    Files.createParentDirs(reportFile);
+    MAPPER.writeValue(reportFile, report);
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /** A running phase, use with try-with-resources. */
+  public final class Phase implements AutoCloseable {
+    private final String name;
+    private final long phaseStartNanos = System.nanoTime();
+
+    private Phase(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void close() {
+      Map<String, Object> phase = new LinkedHashMap<>();
+      phase.put("name", name);
+      phase.put("durationMillis", elapsedMillis(phaseStartNanos));
+      phases.add(phase);
+    }
+  }
+}
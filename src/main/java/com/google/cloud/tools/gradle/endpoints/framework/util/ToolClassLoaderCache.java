@@ -0,0 +1,189 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import com.google.api.server.spi.tools.EndpointsTool;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least recently used cache of class loaders for the endpoints tool, keyed by a hash of the
+ * dependency jars. The tool is loaded into the cached class loader, so the class loader it creates
+ * for the classpath of a request has the dependency jars as parent and only needs the project's own
+ * classes on that classpath. Requests are run by {@link EndpointsToolActions}, which is loaded next
+ * to the tool classes.
+ *
+ * <p>The cache is owned by {@link EndpointsClassLoaderService} and closed with it at the end of the
+ * build, so no jar stays open once the build finished. Only jars of external modules are cached,
+ * jars built by the project or its siblings and directories stay on the tool's classpath.
+ *
+ * <p>A cache created for a single task execution can hold the whole classpath, directories
+ * included, so consecutive tool commands share the loaded service classes.
+ */
+public final class ToolClassLoaderCache implements Closeable {
+
+  private static final String TOOLS_PACKAGE = EndpointsTool.class.getPackage().getName() + ".";
+  private static final String ACTIONS_CLASS = EndpointsToolActions.class.getName();
+
+  private final int maxEntries;
+
+  // access ordered, so iteration starts at the least recently used entry, guarded by this
+  private final Map<String, ToolClassLoader> cache =
+      new LinkedHashMap<String, ToolClassLoader>(16, 0.75f, true);
+
+  /**
+   * Constructor.
+   *
+   * @param maxEntries the number of class loaders to keep open
+   */
+  public ToolClassLoaderCache(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Run an endpoints tool request with the dependency jars in a cached class loader. The classpath
+   * of the request only needs the remaining classpath entries.
+   */
+  public void execute(List<File> dependencyJars, EndpointsToolRequest request) throws Exception {
+    ToolClassLoader classLoader = acquire(dependencyJars);
+    Thread thread = Thread.currentThread();
+    ClassLoader contextClassLoader = thread.getContextClassLoader();
+    thread.setContextClassLoader(classLoader);
+    try {
+      Class<?> actions = classLoader.loadClass(ACTIONS_CLASS);
+      Method run = actions.getMethod("run", EndpointsToolRequest.class);
+      run.invoke(null, request);
+    } catch (InvocationTargetException ex) {
+      Throwable cause = ex.getCause();
+      throw cause instanceof Exception ? (Exception) cause : ex;
+    } finally {
+      thread.setContextClassLoader(contextClassLoader);
+      release(classLoader);
+    }
+  }
+
+  /** Close every class loader, those still in use are closed by their last user. */
+  @Override
+  public synchronized void close() throws IOException {
+    for (ToolClassLoader classLoader : cache.values()) {
+      classLoader.evicted = true;
+      if (classLoader.users == 0) {
+        classLoader.close();
+      }
+    }
+    cache.clear();
+  }
+
+  private synchronized ToolClassLoader acquire(List<File> dependencyJars) throws IOException {
+    String key = hash(dependencyJars);
+    ToolClassLoader classLoader = cache.get(key);
+    if (classLoader == null) {
+      classLoader = new ToolClassLoader(toUrls(dependencyJars));
+      cache.put(key, classLoader);
+    }
+    classLoader.users++;
+
+    Iterator<ToolClassLoader> leastRecentlyUsed = cache.values().iterator();
+    while (cache.size() > maxEntries && leastRecentlyUsed.hasNext()) {
+      ToolClassLoader evicted = leastRecentlyUsed.next();
+      leastRecentlyUsed.remove();
+      evicted.evicted = true;
+      if (evicted.users == 0) {
+        evicted.close();
+      }
+    }
+    return classLoader;
+  }
+
+  private synchronized void release(ToolClassLoader classLoader) throws IOException {
+    classLoader.users--;
+    // a class loader evicted while in use is closed by its last user
+    if (classLoader.evicted && classLoader.users == 0) {
+      classLoader.close();
+    }
+  }
+
+  private static String hash(List<File> dependencyJars) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (File jar : dependencyJars) {
+      hasher.putString(jar.getAbsolutePath(), Charsets.UTF_8);
+      hasher.putLong(jar.length());
+      hasher.putLong(jar.lastModified());
+    }
+    return hasher.hash().toString();
+  }
+
+  private static URL[] toUrls(List<File> dependencyJars) throws IOException {
+    List<URL> urls = new ArrayList<>();
+    // the tool's own jar and the plugin's first, their classes are defined by this class loader
+    urls.add(EndpointsTool.class.getProtectionDomain().getCodeSource().getLocation());
+    urls.add(EndpointsToolActions.class.getProtectionDomain().getCodeSource().getLocation());
+    for (File jar : dependencyJars) {
+      urls.add(jar.toURI().toURL());
+    }
+    return urls.toArray(new URL[urls.size()]);
+  }
+
+  /**
+   * Loads the endpoints tool classes and {@link EndpointsToolActions} itself and everything else
+   * parent first, the same delegation the tool uses for the classpath of a request.
+   */
+  private static final class ToolClassLoader extends URLClassLoader {
+
+    static {
+      registerAsParallelCapable();
+    }
+
+    // guarded by the cache
+    private int users;
+    private boolean evicted;
+
+    private ToolClassLoader(URL[] urls) {
+      super(urls, ToolClassLoaderCache.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!name.startsWith(TOOLS_PACKAGE) && !name.equals(ACTIONS_CLASS)) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> loaded = findLoadedClass(name);
+        if (loaded == null) {
+          loaded = findClass(name);
+        }
+        if (resolve) {
+          resolveClass(loaded);
+        }
+        return loaded;
+      }
+    }
+  }
+}
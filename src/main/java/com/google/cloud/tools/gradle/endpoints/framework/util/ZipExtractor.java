@@ -0,0 +1,163 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts zips through the NIO zip file system, streaming each entry into the target directory.
+ * Entries whose content hash matches the file already on disk are not written, so unchanged files
+ * keep their timestamps.
+ *
+ * <p>Client library zips used to be extracted with the Ant unzip task because Gradle's zipTree had
+ * issues with strangely formed client libraries. The zip file system reads entries from the central
+ * directory, so zips without directory entries, with directory entries after their files or with
+ * streamed entries extract the same way, see ZipExtractorTest.
+ */
+public final class ZipExtractor {
+
+  private final File targetDir;
+  private final Pattern volatileLines;
+  private int writtenFiles;
+  private int unchangedFiles;
+
+  public ZipExtractor(File targetDir) {
+    this(targetDir, null);
+  }
+
+  /**
+   * Constructor for zips of text files that carry a generation timestamp or similar.
+   *
+   * @param volatileLines lines that are ignored when comparing an entry with the file on disk, so a
+   *     file that only differs in these lines is not written
+   */
+  public ZipExtractor(File targetDir, Pattern volatileLines) {
+    this.targetDir = targetDir;
+    this.volatileLines = volatileLines;
+  }
+
+  /**
+   * Extract all files of a zip.
+   *
+   * @return the paths of the extracted files, relative to the target directory
+   */
+  public Set<String> extract(File zip) throws IOException {
+    return extract(zip, Functions.<String>identity());
+  }
+
+  /**
+   * Extract the files of a zip to the paths a mapping gives them.
+   *
+   * @param pathMapping maps the '/' separated path of an entry to its path relative to the target
+   *     directory, or to null to skip the entry
+   * @return the paths of the extracted files, relative to the target directory
+   */
+  public Set<String> extract(File zip, final Function<String, String> pathMapping)
+      throws IOException {
+    final Set<String> extracted = new LinkedHashSet<>();
+    try (FileSystem zipFileSystem = FileSystems.newFileSystem(zip.toPath(), (ClassLoader) null)) {
+      for (final Path root : zipFileSystem.getRootDirectories()) {
+        Files.walkFileTree(
+            root,
+            new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult visitFile(Path entry, BasicFileAttributes attributes)
+                  throws IOException {
+                String path = pathMapping.apply(root.relativize(entry).toString());
+                if (path != null) {
+                  writeIfChanged(entry, attributes.size(), resolve(path));
+                  extracted.add(path);
+                }
+                return FileVisitResult.CONTINUE;
+              }
+            });
+      }
+    }
+    return extracted;
+  }
+
+  /** Number of files written since this extractor was created. */
+  public int getWrittenFiles() {
+    return writtenFiles;
+  }
+
+  /** Number of files that already had the content of their entry. */
+  public int getUnchangedFiles() {
+    return unchangedFiles;
+  }
+
+  // entries are never written outside of the target directory
+  private File resolve(String path) throws IOException {
+    Path target = targetDir.toPath().resolve(path).normalize();
+    if (!target.startsWith(targetDir.toPath().normalize())) {
+      throw new IOException("Zip entry " + path + " is outside of " + targetDir);
+    }
+    return target.toFile();
+  }
+
+  private void writeIfChanged(Path entry, long size, File target) throws IOException {
+    if (target.isFile() && sameContent(entry, size, target.toPath())) {
+      unchangedFiles++;
+      return;
+    }
+    if (target.isDirectory()) {
+      DirectorySync.deleteRecursively(target);
+    }
+    com.google.common.io.Files.createParentDirs(target);
+    Files.copy(entry, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    writtenFiles++;
+  }
+
+  private boolean sameContent(Path entry, long size, Path target) throws IOException {
+    if (volatileLines == null) {
+      return Files.size(target) == size && hash(entry).equals(hash(target));
+    }
+    return withoutVolatileLines(entry).equals(withoutVolatileLines(target));
+  }
+
+  private String withoutVolatileLines(Path file) throws IOException {
+    StringBuilder content = new StringBuilder();
+    for (String line : MoreFiles.asCharSource(file, Charsets.UTF_8).readLines()) {
+      if (!volatileLines.matcher(line).matches()) {
+        content.append(line).append('\n');
+      }
+    }
+    return content.toString();
+  }
+
+  private static HashCode hash(Path file) throws IOException {
+    return MoreFiles.asByteSource(file).hash(Hashing.sha256());
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Build times of large synthetic projects, for cold, warm, no-op and single API change builds. Only
+ * runs with {@code ./gradlew performanceTest}, which also passes the size of the projects, the
+ * results of an earlier run to compare with and the allowed regression.
+ */
+public class EndpointsBuildPerformanceTest {
+
+  private static final String ENABLED_PROPERTY = "endpoints.performance";
+  private static final String API_COUNT_PROPERTY = "endpoints.performance.apis";
+  private static final String BEAN_DEPTH_PROPERTY = "endpoints.performance.beanDepth";
+  private static final String THRESHOLD_PROPERTY = "endpoints.performance.threshold";
+  private static final String BASELINE_DIR_PROPERTY = "endpoints.performance.baselineDir";
+  private static final String REPORT_DIR_PROPERTY = "endpoints.performance.reportDir";
+
+  @Rule public TemporaryFolder testProjectDir = new TemporaryFolder();
+
+  @Before
+  public void assumePerformanceRun() {
+    Assume.assumeTrue(Boolean.getBoolean(ENABLED_PROPERTY));
+  }
+
+  @Test
+  public void testServerBuildTimes() throws IOException, URISyntaxException {
+    measureBuildTimes("server", "endpointsDiscoveryDocs", "endpointsClientLibs");
+  }
+
+  @Test
+  public void testClientBuildTimes() throws IOException, URISyntaxException {
+    measureBuildTimes("client", "assemble");
+  }
+
+  @Test
+  public void testClientServerBuildTimes() throws IOException, URISyntaxException {
+    measureBuildTimes("clientserver", "assemble");
+  }
+
+  private void measureBuildTimes(String layout, String... tasks)
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/" + layout)
+            .syntheticApis(
+                Integer.getInteger(API_COUNT_PROPERTY, 200),
+                Integer.getInteger(BEAN_DEPTH_PROPERTY, 5))
+            .gradleRunnerArguments(tasks);
+    List<String> cleanBuild = new ArrayList<>();
+    cleanBuild.add("clean");
+    cleanBuild.addAll(Arrays.asList(tasks));
+
+    Map<String, Long> buildTimes = new LinkedHashMap<>();
+    long start = System.nanoTime();
+    testProject.build();
+    buildTimes.put("cold", elapsedMillis(start));
+
+    start = System.nanoTime();
+    testProject.buildAgain(cleanBuild.toArray(new String[cleanBuild.size()]));
+    buildTimes.put("warm", elapsedMillis(start));
+
+    start = System.nanoTime();
+    testProject.buildAgain(tasks);
+    buildTimes.put("noOp", elapsedMillis(start));
+
+    testProject.changeSyntheticApi(0);
+    start = System.nanoTime();
+    testProject.buildAgain(tasks);
+    buildTimes.put("singleFileChange", elapsedMillis(start));
+
+    writeBuildTimes(layout, buildTimes);
+
+    Assert.assertTrue(
+        "no-op build should be faster than a full build: " + buildTimes,
+        buildTimes.get("noOp") < buildTimes.get("warm"));
+    assertNoRegression(layout, buildTimes);
+  }
+
+  // Fail if any build time is slower than the baseline by more than the threshold factor.
+  private static void assertNoRegression(String layout, Map<String, Long> buildTimes)
+      throws IOException {
+    String baselineDir = System.getProperty(BASELINE_DIR_PROPERTY);
+    if (baselineDir == null) {
+      return;
+    }
+    File baselineFile = new File(baselineDir, layout + ".properties");
+    if (!baselineFile.exists()) {
+      return;
+    }
+    Properties baseline = new Properties();
+    try (InputStream in = new FileInputStream(baselineFile)) {
+      baseline.load(in);
+    }
+
+    double threshold = Double.parseDouble(System.getProperty(THRESHOLD_PROPERTY, "1.5"));
+    List<String> regressions = new ArrayList<>();
+    for (Map.Entry<String, Long> buildTime : buildTimes.entrySet()) {
+      String baselineTime = baseline.getProperty(buildTime.getKey());
+      if (baselineTime != null && buildTime.getValue() > Long.parseLong(baselineTime) * threshold) {
+        regressions.add(
+            buildTime.getKey() + " " + buildTime.getValue() + "ms, was " + baselineTime + "ms");
+      }
+    }
+    Assert.assertTrue(layout + " build times regressed: " + regressions, regressions.isEmpty());
+  }
+
+  private static void writeBuildTimes(String layout, Map<String, Long> buildTimes)
+      throws IOException {
+    String reportDir = System.getProperty(REPORT_DIR_PROPERTY);
+    if (reportDir == null) {
+      return;
+    }
+    Properties results = new Properties();
+    for (Map.Entry<String, Long> buildTime : buildTimes.entrySet()) {
+      results.setProperty(buildTime.getKey(), String.valueOf(buildTime.getValue()));
+    }
+    File resultFile = new File(reportDir, layout + ".properties");
+    resultFile.getParentFile().mkdirs();
+    try (OutputStream out = new FileOutputStream(resultFile)) {
+      results.store(out, layout + " build times in milliseconds");
+    }
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
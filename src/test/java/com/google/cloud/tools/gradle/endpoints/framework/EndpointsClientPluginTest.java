@@ -16,10 +16,13 @@
 
 package com.google.cloud.tools.gradle.endpoints.framework;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import org.gradle.testkit.runner.BuildResult;
+import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,4 +51,119 @@ public class EndpointsClientPluginTest {
 
     Assert.assertTrue(genSrcFile.exists());
   }
+
+  @Test
+  public void testClientBuilds_workerProcess() throws IOException, URISyntaxException {
+    new TestProject(testProjectDir.getRoot(), "projects/client")
+        .appendToBuildGradle(
+            "endpointsClient {\n"
+                + "  useWorkerProcess = true\n"
+                + "  forkOptions {\n"
+                + "    maxHeapSize = '256m'\n"
+                + "  }\n"
+                + "}")
+        .gradleRunnerArguments("assemble")
+        .build();
+
+    File genSrcDir = new File(testProjectDir.getRoot(), "build/endpointsGenSrc");
+    File genSrcFile = new File(genSrcDir, "com/example/testApi/TestApi.java");
+    Assert.assertTrue(genSrcFile.exists());
+  }
+
+  @Test
+  public void testClientBuilds_parallelGeneration() throws IOException, URISyntaxException {
+    new TestProject(testProjectDir.getRoot(), "projects/client")
+        .appendToBuildGradle("endpointsClient.parallelGeneration = true")
+        .syntheticApis(3, 1)
+        .gradleRunnerArguments("assemble")
+        .build();
+
+    File genSrcDir = new File(testProjectDir.getRoot(), "build/endpointsGenSrc");
+    Assert.assertTrue(new File(genSrcDir, "com/example/testApi/TestApi.java").exists());
+    for (int api = 0; api < 3; api++) {
+      String apiName = "synthetic" + api;
+      Assert.assertTrue(
+          new File(genSrcDir, "com/example/" + apiName + "/Synthetic" + api + ".java").exists());
+    }
+  }
+
+  @Test
+  public void testClientBuilds_incrementalClientLibs() throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/client")
+            .syntheticApis(3, 1)
+            .appendToBuildGradle("endpointsClient.performanceReports = true")
+            .gradleRunnerArguments("assemble");
+    testProject.build();
+    File clientLibDir = new File(testProjectDir.getRoot(), "build/endpointsClientLibs");
+    File unchangedClientLib = findClientLib(clientLibDir, "synthetic0");
+    unchangedClientLib.setLastModified(0);
+
+    testProject.changeSyntheticApi(1);
+    new File(testProjectDir.getRoot(), "src/endpoints/synthetic2-v1-rest.discovery").delete();
+    testProject.buildAgain("assemble");
+
+    Assert.assertEquals(0, unchangedClientLib.lastModified());
+    Assert.assertNotNull(findClientLib(clientLibDir, "synthetic1"));
+    Assert.assertNull(findClientLib(clientLibDir, "synthetic2"));
+    String report =
+        Files.toString(
+            new File(testProjectDir.getRoot(), "build/reports/endpoints/_endpointsClientLibs.json"),
+            Charsets.UTF_8);
+    Assert.assertThat(report, CoreMatchers.containsString("\"unchangedDiscoveryDocs\" : 2"));
+  }
+
+  @Test
+  public void testClientBuilds_unchangedSourcesNotRewritten()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/client")
+            .syntheticApis(3, 1)
+            .gradleRunnerArguments("assemble");
+    testProject.build();
+    File genSrcDir = new File(testProjectDir.getRoot(), "build/endpointsGenSrc");
+    File unchangedSource = new File(genSrcDir, "com/example/synthetic0/Synthetic0.java");
+    unchangedSource.setLastModified(0);
+
+    testProject.changeSyntheticApi(1);
+    new File(testProjectDir.getRoot(), "src/endpoints/synthetic2-v1-rest.discovery").delete();
+    testProject.buildAgain("assemble");
+
+    Assert.assertEquals(0, unchangedSource.lastModified());
+    Assert.assertTrue(new File(genSrcDir, "com/example/synthetic1/Synthetic1.java").exists());
+    Assert.assertFalse(new File(genSrcDir, "com/example/synthetic2").exists());
+  }
+
+  @Test
+  public void testClientBuilds_regeneratedSourcesNotRewritten()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/client")
+            .gradleRunnerArguments("assemble");
+    testProject.build();
+    File clientLibDir = new File(testProjectDir.getRoot(), "build/endpointsClientLibs");
+    File clientLib = findClientLib(clientLibDir, "testApi");
+    clientLib.setLastModified(0);
+    File genSrcDir = new File(testProjectDir.getRoot(), "build/endpointsGenSrc");
+    File genSrcFile = new File(genSrcDir, "com/example/testApi/TestApi.java");
+    genSrcFile.setLastModified(0);
+
+    // the client library is generated again, with a new timestamp in its source headers
+    testProject.buildAgain("assemble", "--rerun-tasks");
+
+    Assert.assertNotEquals(0, clientLib.lastModified());
+    Assert.assertEquals(0, genSrcFile.lastModified());
+  }
+
+  private static File findClientLib(File clientLibDir, String api) {
+    File[] clientLibs = clientLibDir.listFiles();
+    if (clientLibs != null) {
+      for (File clientLib : clientLibs) {
+        if (clientLib.getName().startsWith(api + "-")) {
+          return clientLib;
+        }
+      }
+    }
+    return null;
+  }
 }
@@ -16,10 +16,13 @@
 
 package com.google.cloud.tools.gradle.endpoints.framework;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import org.gradle.testkit.runner.BuildResult;
+import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
@@ -47,4 +50,41 @@ public class EndpointsCombinedPluginTest {
 
     Assert.assertTrue(genSrcFile.exists());
   }
+
+  @Test
+  public void testClientServerIntegrationBuilds_configurationCache()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/clientserver")
+            .gradleRunnerArguments("assemble", "--configuration-cache");
+    testProject.build();
+
+    BuildResult buildResult = testProject.buildAgain("clean", "assemble", "--configuration-cache");
+
+    Assert.assertTrue(buildResult.getOutput().contains("Reusing configuration cache."));
+    File genSrcDir = new File(testProjectDir.getRoot(), "client/build/endpointsGenSrc");
+    File genSrcFile = new File(genSrcDir, "com/example/testApi/TestApi.java");
+    Assert.assertTrue(genSrcFile.exists());
+  }
+
+  @Test
+  public void testClientServerIntegrationBuilds_unchangedDiscoveryDocsNotExtracted()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/clientserver")
+            .gradleRunnerArguments("assemble");
+    testProject.build();
+    File extractedDocsDir =
+        new File(testProjectDir.getRoot(), "client/build/endpointsDiscoveryDocsFromDependencies");
+    File unchangedDoc = new File(extractedDocsDir, "testApi-v1-rest.discovery");
+    unchangedDoc.setLastModified(0);
+
+    testProject.replaceInFile("server/src/main/java/com/example/Test2.java", "echo2", "echo3");
+    testProject.buildAgain("assemble");
+
+    Assert.assertEquals(0, unchangedDoc.lastModified());
+    String changedDoc =
+        Files.toString(new File(extractedDocsDir, "testApi2-v1-rest.discovery"), Charsets.UTF_8);
+    Assert.assertThat(changedDoc, CoreMatchers.containsString("echo3"));
+  }
 }
@@ -25,6 +25,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.util.zip.ZipFile;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.TaskOutcome;
 import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -43,9 +45,23 @@ public class EndpointsServerPluginTest {
   private static final String CLIENT_LIB_PATH = "build/endpointsClientLibs/testApi-v1-java.zip";
   private static final String DISC_DOC_PATH =
       "build/endpointsDiscoveryDocs/testApi-v1-rest.discovery";
+  private static final String DISC_DOC_2_PATH =
+      "build/endpointsDiscoveryDocs/testApi2-v1-rest.discovery";
   private static final String API_JAVA_FILE_PATH =
       "testApi/src/main/java/com/example/testApi/TestApi.java";
   private static final String OPEN_API_DOC_PATH = "build/endpointsOpenApiDocs/openapi.json";
+  private static final String ARTIFACTS_DISC_DOC_PATH =
+      "build/endpointsArtifacts/discoveryDocs/testApi-v1-rest.discovery";
+  private static final String ARTIFACTS_OPEN_API_DOC_PATH =
+      "build/endpointsArtifacts/openApiDocs/openapi.json";
+  private static final String ARTIFACTS_CLIENT_LIB_PATH =
+      "build/endpointsArtifacts/clientLibs/testApi-v1-java.zip";
+  private static final String TEST_API_JAVA_PATH = "src/main/java/com/example/Test.java";
+  private static final String TEST_2_API_JAVA_PATH = "src/main/java/com/example/Test2.java";
+  private static final String MY_BEAN_JAVA_PATH = "src/main/java/com/example/MyBean.java";
+  private static final String MY_BEAN_TRANSFORMER_JAVA_PATH =
+      "src/main/java/com/example/MyBeanTransformer.java";
+  private static final String WEB_XML_PATH = "src/main/webapp/WEB-INF/web.xml";
 
   @Rule public TemporaryFolder testProjectDir = new TemporaryFolder();
 
@@ -151,6 +167,306 @@ public class EndpointsServerPluginTest {
     assertDiscoveryDocGeneration("https://gradle-test.appspot.com/_ah/api", DEFAULT_URL);
   }
 
+  @Test
+  public void testDiscoveryDocs_workerProcess() throws IOException, URISyntaxException {
+    new TestProject(testProjectDir.getRoot(), "projects/server")
+        .appendToBuildGradle("endpointsServer.useWorkerProcess = true")
+        .gradleRunnerArguments("endpointsDiscoveryDocs", "endpointsOpenApiDocs")
+        .build();
+
+    assertDiscoveryDocGeneration(DEFAULT_URL, null);
+    assertOpenApiDocGeneration(DEFAULT_HOSTNAME, null);
+  }
+
+  @Test
+  public void testDiscoveryDocs_forkOptions() throws IOException, URISyntaxException {
+    new TestProject(testProjectDir.getRoot(), "projects/server")
+        .appendToBuildGradle(
+            "endpointsServer {\n"
+                + "  useWorkerProcess = true\n"
+                + "  forkOptions {\n"
+                + "    maxHeapSize = '256m'\n"
+                + "    garbageCollector = 'Serial'\n"
+                + "    jvmArgs = ['-Dendpoints.test=true']\n"
+                + "  }\n"
+                + "}")
+        .gradleRunnerArguments("endpointsDiscoveryDocs", "endpointsOpenApiDocs")
+        .build();
+
+    assertDiscoveryDocGeneration(DEFAULT_URL, null);
+    assertOpenApiDocGeneration(DEFAULT_HOSTNAME, null);
+  }
+
+  @Test
+  public void testDiscoveryDocs_classLoadersCached() throws IOException, URISyntaxException {
+    new TestProject(testProjectDir.getRoot(), "projects/server")
+        .appendToBuildGradle("endpointsServer.cacheClassLoaders = true")
+        .gradleRunnerArguments("endpointsDiscoveryDocs", "endpointsOpenApiDocs")
+        .build();
+
+    assertDiscoveryDocGeneration(DEFAULT_URL, null);
+    assertOpenApiDocGeneration(DEFAULT_HOSTNAME, null);
+  }
+
+  @Test
+  public void testDiscoveryDocs_buildCache() throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .gradleRunnerArguments("endpointsDiscoveryDocs", "--build-cache");
+    testProject.build();
+
+    BuildResult buildResult =
+        testProject.buildAgain("clean", "endpointsDiscoveryDocs", "--build-cache");
+
+    Assert.assertEquals(
+        TaskOutcome.FROM_CACHE, buildResult.task(":endpointsDiscoveryDocs").getOutcome());
+    assertDiscoveryDocGeneration(DEFAULT_URL, null);
+  }
+
+  @Test
+  public void testDiscoveryDocs_buildCacheDoesNotRestoreReport()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .appendToBuildGradle("endpointsServer.performanceReports = true")
+            .gradleRunnerArguments("endpointsDiscoveryDocs", "--build-cache");
+    testProject.build();
+
+    BuildResult buildResult =
+        testProject.buildAgain("clean", "endpointsDiscoveryDocs", "--build-cache");
+
+    // the report describes an execution, a cache hit has none
+    Assert.assertEquals(
+        TaskOutcome.FROM_CACHE, buildResult.task(":endpointsDiscoveryDocs").getOutcome());
+    Assert.assertFalse(
+        new File(testProjectDir.getRoot(), "build/reports/endpoints/endpointsDiscoveryDocs.json")
+            .exists());
+  }
+
+  @Test
+  public void testDiscoveryDocs_implementationChangeUpToDate()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .gradleRunnerArguments("endpointsDiscoveryDocs");
+    testProject.build();
+
+    testProject.replaceInFile(TEST_API_JAVA_PATH, "ECHO ", "HELLO ");
+    BuildResult buildResult = testProject.buildAgain("endpointsDiscoveryDocs");
+
+    Assert.assertEquals(TaskOutcome.SUCCESS, buildResult.task(":compileJava").getOutcome());
+    Assert.assertEquals(
+        TaskOutcome.UP_TO_DATE, buildResult.task(":endpointsDiscoveryDocs").getOutcome());
+  }
+
+  @Test
+  public void testDiscoveryDocs_transformerChangeRegenerates()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server").gradleRunnerArguments("help");
+    testProject.build();
+
+    File transformer = new File(testProjectDir.getRoot(), MY_BEAN_TRANSFORMER_JAVA_PATH);
+    Files.asCharSink(transformer, Charsets.UTF_8)
+        .write(
+            "package com.example;\n"
+                + "public class MyBeanTransformer\n"
+                + "    implements com.google.api.server.spi.config.Transformer<MyBean, String> {\n"
+                + "  public String transformTo(MyBean in) {\n"
+                + "    return in.getString();\n"
+                + "  }\n"
+                + "  public MyBean transformFrom(String in) {\n"
+                + "    MyBean bean = new MyBean();\n"
+                + "    bean.setString(in);\n"
+                + "    return bean;\n"
+                + "  }\n"
+                + "}\n");
+    testProject.replaceInFile(
+        MY_BEAN_JAVA_PATH,
+        "public class MyBean",
+        "@com.google.api.server.spi.config.ApiTransformer(MyBeanTransformer.class)\n"
+            + "public class MyBean");
+    testProject.buildAgain("endpointsDiscoveryDocs");
+
+    // the transformer runs while the docs are generated, so its body is part of the api
+    testProject.replaceInFile(
+        MY_BEAN_TRANSFORMER_JAVA_PATH,
+        "return in.getString\\(\\);",
+        "return in.getString().trim();");
+    BuildResult buildResult = testProject.buildAgain("endpointsDiscoveryDocs");
+
+    Assert.assertEquals(
+        TaskOutcome.SUCCESS, buildResult.task(":endpointsDiscoveryDocs").getOutcome());
+  }
+
+  @Test
+  public void testDiscoveryDocs_staticContentChangeUpToDate()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .gradleRunnerArguments("endpointsDiscoveryDocs");
+    testProject.build();
+
+    File staticFile = new File(testProjectDir.getRoot(), "src/main/webapp/index.html");
+    Files.asCharSink(staticFile, Charsets.UTF_8).write("<html></html>");
+    BuildResult buildResult = testProject.buildAgain("endpointsDiscoveryDocs");
+
+    Assert.assertEquals(
+        TaskOutcome.UP_TO_DATE, buildResult.task(":endpointsDiscoveryDocs").getOutcome());
+  }
+
+  @Test
+  public void testDiscoveryDocs_webInfClassesChangeRegenerates()
+      throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .gradleRunnerArguments("endpointsDiscoveryDocs");
+    testProject.build();
+
+    // the endpoints tool loads service classes with WEB-INF/classes on the classpath
+    File resource =
+        new File(testProjectDir.getRoot(), "src/main/webapp/WEB-INF/classes/extra.properties");
+    Files.createParentDirs(resource);
+    Files.asCharSink(resource, Charsets.UTF_8).write("extra=true");
+    BuildResult buildResult = testProject.buildAgain("endpointsDiscoveryDocs");
+
+    Assert.assertEquals(
+        TaskOutcome.SUCCESS, buildResult.task(":endpointsDiscoveryDocs").getOutcome());
+  }
+
+  @Test
+  public void testDiscoveryDocs_apiChangeRegenerates() throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .gradleRunnerArguments("endpointsDiscoveryDocs");
+    testProject.build();
+
+    testProject.replaceInFile(
+        MY_BEAN_JAVA_PATH, "public String string;", "public String string;\n  public int number;");
+    BuildResult buildResult = testProject.buildAgain("endpointsDiscoveryDocs");
+
+    Assert.assertEquals(
+        TaskOutcome.SUCCESS, buildResult.task(":endpointsDiscoveryDocs").getOutcome());
+    assertDiscoveryDocGeneration("\"number\"", null);
+  }
+
+  @Test
+  public void testDiscoveryDocs_scanServiceClasses() throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .appendToBuildGradle("endpointsServer.scanServiceClasses = true")
+            .gradleRunnerArguments("help");
+    testProject.build();
+
+    // service classes must now come from scanning, not web.xml
+    testProject.replaceInFile(WEB_XML_PATH, "com.example.Test", "com.example.DoesNotExist");
+    testProject.buildAgain("endpointsDiscoveryDocs");
+
+    assertDiscoveryDocGeneration(DEFAULT_URL, null);
+    // the service class was indexed while compiling, so no class file was scanned
+    File indexEntry =
+        new File(
+            testProjectDir.getRoot(),
+            "build/classes/java/main/META-INF/endpoints/services/com.example.Test");
+    Assert.assertEquals("testApi-v1", Files.asCharSource(indexEntry, Charsets.UTF_8).read().trim());
+    Assert.assertFalse(
+        new File(testProjectDir.getRoot(), "build/endpointsServiceClassIndex").exists());
+  }
+
+  @Test
+  public void testDiscoveryDocs_parallelGeneration() throws IOException, URISyntaxException {
+    new TestProject(testProjectDir.getRoot(), "projects/clientserver/server")
+        .appendToBuildGradle("endpointsServer.parallelGeneration = true")
+        .gradleRunnerArguments("endpointsDiscoveryDocs")
+        .build();
+
+    Assert.assertTrue(new File(testProjectDir.getRoot(), DISC_DOC_PATH).exists());
+    Assert.assertTrue(new File(testProjectDir.getRoot(), DISC_DOC_2_PATH).exists());
+  }
+
+  @Test
+  public void testDiscoveryDocs_incrementalApis() throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/clientserver/server")
+            .appendToBuildGradle(
+                "endpointsServer.scanServiceClasses = true\n"
+                    + "endpointsServer.incrementalApis = true\n"
+                    + "endpointsServer.performanceReports = true")
+            .gradleRunnerArguments("endpointsDiscoveryDocs");
+    testProject.build();
+
+    testProject.replaceInFile(TEST_2_API_JAVA_PATH, "echo2", "echo3");
+    testProject.buildAgain("endpointsDiscoveryDocs");
+
+    File reportFile =
+        new File(testProjectDir.getRoot(), "build/reports/endpoints/endpointsDiscoveryDocs.json");
+    String report = Files.toString(reportFile, Charsets.UTF_8);
+    Assert.assertThat(report, CoreMatchers.containsString("\"unchangedApis\" : 1"));
+    Assert.assertThat(report, CoreMatchers.containsString("\"invocations\" : 1"));
+    String discoveryDoc2 =
+        Files.toString(new File(testProjectDir.getRoot(), DISC_DOC_2_PATH), Charsets.UTF_8);
+    Assert.assertThat(discoveryDoc2, CoreMatchers.containsString("echo3"));
+    Assert.assertTrue(new File(testProjectDir.getRoot(), DISC_DOC_PATH).exists());
+  }
+
+  @Test
+  public void testDiscoveryDocs_unchangedDocsNotRewritten() throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/clientserver/server")
+            .gradleRunnerArguments("endpointsDiscoveryDocs");
+    testProject.build();
+    File unchangedDoc = new File(testProjectDir.getRoot(), DISC_DOC_PATH);
+    unchangedDoc.setLastModified(0);
+
+    testProject.replaceInFile(TEST_2_API_JAVA_PATH, "echo2", "echo3");
+    BuildResult buildResult = testProject.buildAgain("endpointsDiscoveryDocs");
+
+    Assert.assertEquals(
+        TaskOutcome.SUCCESS, buildResult.task(":endpointsDiscoveryDocs").getOutcome());
+    Assert.assertEquals(0, unchangedDoc.lastModified());
+    String changedDoc =
+        Files.toString(new File(testProjectDir.getRoot(), DISC_DOC_2_PATH), Charsets.UTF_8);
+    Assert.assertThat(changedDoc, CoreMatchers.containsString("echo3"));
+  }
+
+  @Test
+  public void testDiscoveryDocs_reproducible() throws IOException, URISyntaxException {
+    TestProject testProject =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .appendToBuildGradle("endpointsServer.reproducibleDocs = true")
+            .gradleRunnerArguments("_zipDiscoveryDocs");
+    testProject.build();
+    File zipDir = new File(testProjectDir.getRoot(), "build/distributions");
+    File discoveryDocZip = zipDir.listFiles()[0];
+    byte[] firstZip = Files.toByteArray(discoveryDocZip);
+
+    testProject.buildAgain("clean", "_zipDiscoveryDocs", "--rerun-tasks");
+
+    Assert.assertArrayEquals(firstZip, Files.toByteArray(discoveryDocZip));
+    String discovery =
+        Files.toString(new File(testProjectDir.getRoot(), DISC_DOC_PATH), Charsets.UTF_8);
+    Assert.assertTrue(discovery.indexOf("\"baseUrl\"") < discovery.indexOf("\"version\""));
+    assertDiscoveryDocGeneration(DEFAULT_URL, null);
+  }
+
+  @Test
+  public void testDiscoveryDocs_performanceReport() throws IOException, URISyntaxException {
+    new TestProject(testProjectDir.getRoot(), "projects/server")
+        .appendToBuildGradle("endpointsServer.performanceReports = true")
+        .gradleRunnerArguments("endpointsDiscoveryDocs")
+        .build();
+
+    File reportFile =
+        new File(testProjectDir.getRoot(), "build/reports/endpoints/endpointsDiscoveryDocs.json");
+    String report = Files.toString(reportFile, Charsets.UTF_8);
+    Assert.assertThat(
+        report, CoreMatchers.containsString("\"task\" : \":endpointsDiscoveryDocs\""));
+    Assert.assertThat(report, CoreMatchers.containsString("\"classpathResolution\""));
+    Assert.assertThat(report, CoreMatchers.containsString("\"introspection\""));
+    Assert.assertThat(report, CoreMatchers.containsString("\"outputSync\""));
+    Assert.assertThat(report, CoreMatchers.containsString("\"outputFiles\""));
+  }
+
   private void assertDiscoveryDocGeneration(String expected, String unexpected) throws IOException {
     File discoveryDoc = new File(testProjectDir.getRoot(), DISC_DOC_PATH);
     String discovery = Files.toString(discoveryDoc, Charsets.UTF_8);
@@ -199,6 +515,42 @@ public class EndpointsServerPluginTest {
     assertOpenApiDocGeneration("gradle-test.appspot.com", DEFAULT_HOSTNAME);
   }
 
+  @Test
+  public void testArtifacts() throws IOException, URISyntaxException {
+    new TestProject(testProjectDir.getRoot(), "projects/server")
+        .gradleRunnerArguments("endpointsArtifacts")
+        .build();
+
+    String discovery =
+        Files.toString(new File(testProjectDir.getRoot(), ARTIFACTS_DISC_DOC_PATH), Charsets.UTF_8);
+    Assert.assertThat(discovery, CoreMatchers.containsString(DEFAULT_URL));
+    String openApi =
+        Files.toString(
+            new File(testProjectDir.getRoot(), ARTIFACTS_OPEN_API_DOC_PATH), Charsets.UTF_8);
+    Assert.assertThat(openApi, CoreMatchers.containsString(DEFAULT_HOSTNAME));
+    String apiJavaFile =
+        getFileContentsInZip(
+            new File(testProjectDir.getRoot(), ARTIFACTS_CLIENT_LIB_PATH), API_JAVA_FILE_PATH);
+    Assert.assertThat(apiJavaFile, CoreMatchers.containsString(DEFAULT_URL_VARIABLE));
+    // the outputs of the tasks generating a single artifact are left alone
+    Assert.assertFalse(new File(testProjectDir.getRoot(), DISC_DOC_PATH).exists());
+  }
+
+  @Test
+  public void testArtifacts_discoveryDocZip() throws IOException, URISyntaxException {
+    BuildResult buildResult =
+        new TestProject(testProjectDir.getRoot(), "projects/server")
+            .appendToBuildGradle("endpointsServer.useArtifactsTask = true")
+            .gradleRunnerArguments("_zipDiscoveryDocs")
+            .build();
+
+    Assert.assertEquals(TaskOutcome.SUCCESS, buildResult.task(":endpointsArtifacts").getOutcome());
+    Assert.assertNull(buildResult.task(":endpointsDiscoveryDocs"));
+    File zipDir = new File(testProjectDir.getRoot(), "build/distributions");
+    String discovery = getFileContentsInZip(zipDir.listFiles()[0], "testApi-v1-rest.discovery");
+    Assert.assertThat(discovery, CoreMatchers.containsString(DEFAULT_URL));
+  }
+
   private void assertOpenApiDocGeneration(String expected, String unexpected) throws IOException {
     File openApiDoc = new File(testProjectDir.getRoot(), OPEN_API_DOC_PATH);
     String openApi = Files.toString(openApiDoc, Charsets.UTF_8);
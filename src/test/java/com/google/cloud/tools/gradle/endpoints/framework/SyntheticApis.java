@@ -0,0 +1,103 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates large synthetic endpoints projects from the small test projects: hundreds of {@code
+ * Api} service classes with deep bean graphs for servers, or as many discovery docs for clients.
+ */
+final class SyntheticApis {
+
+  private static final String SOURCE_DIR = "src/main/java";
+  private static final String WEB_XML_PATH = "src/main/webapp/WEB-INF/web.xml";
+  private static final String DISCOVERY_DOC_DIR = "src/endpoints";
+  private static final String TEMPLATE_DISCOVERY_DOC = "testApi-v1-rest.discovery";
+
+  private SyntheticApis() {}
+
+  /**
+   * Add synthetic APIs to a copied test project. Server projects, including the server of a
+   * client-server project, get service classes registered in web.xml, client projects get discovery
+   * docs next to their existing one.
+   */
+  static void generate(File projectDir, int apiCount, int beanDepth) throws IOException {
+    File serverDir = findServerDir(projectDir);
+    if (serverDir != null) {
+      StringBuilder serviceClasses = new StringBuilder();
+      for (String serviceClass :
+          SyntheticSources.writeServiceClasses(
+              new File(serverDir, SOURCE_DIR), apiCount, beanDepth)) {
+        serviceClasses.append(",").append(serviceClass);
+      }
+      // web.xml accepts a comma separated list of service classes
+      File webXml = new File(serverDir, WEB_XML_PATH);
+      String contents = FileUtils.readFileToString(webXml);
+      FileUtils.writeStringToFile(
+          webXml,
+          contents.replaceFirst(
+              "(<param-name>services</param-name>\\s*<param-value>[^<]*)", "$1" + serviceClasses));
+    } else {
+      File docDir = new File(projectDir, DISCOVERY_DOC_DIR);
+      String template = FileUtils.readFileToString(new File(docDir, TEMPLATE_DISCOVERY_DOC));
+      for (int api = 0; api < apiCount; api++) {
+        FileUtils.writeStringToFile(
+            new File(docDir, discoveryDocName(api)), discoveryDoc(template, api, false));
+      }
+      FileUtils.writeStringToFile(
+          new File(projectDir, "build.gradle"),
+          "\nendpointsClient.discoveryDocs = ['" + DISCOVERY_DOC_DIR + "']\n",
+          true);
+    }
+  }
+
+  /** Change the API surface of one synthetic API of an already generated project. */
+  static void change(File projectDir, int api) throws IOException {
+    File serverDir = findServerDir(projectDir);
+    if (serverDir != null) {
+      SyntheticSources.writeServiceClass(new File(serverDir, SOURCE_DIR), api, true);
+    } else {
+      File docDir = new File(projectDir, DISCOVERY_DOC_DIR);
+      String template = FileUtils.readFileToString(new File(docDir, TEMPLATE_DISCOVERY_DOC));
+      FileUtils.writeStringToFile(
+          new File(docDir, discoveryDocName(api)), discoveryDoc(template, api, true));
+    }
+  }
+
+  private static File findServerDir(File projectDir) {
+    if (new File(projectDir, WEB_XML_PATH).exists()) {
+      return projectDir;
+    }
+    File serverDir = new File(projectDir, "server");
+    if (new File(serverDir, WEB_XML_PATH).exists()) {
+      return serverDir;
+    }
+    return null;
+  }
+
+  private static String discoveryDocName(int api) {
+    return "synthetic" + api + "-v1-rest.discovery";
+  }
+
+  private static String discoveryDoc(String template, int api, boolean changed) {
+    String doc = template.replace("testApi", "synthetic" + api);
+    return changed ? doc.replace("This is an API", "This is a changed API") : doc;
+  }
+}
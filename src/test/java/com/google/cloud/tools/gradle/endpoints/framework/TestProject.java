@@ -32,6 +32,9 @@ public class TestProject {
   private String hostname;
   private String basePath;
   private String application;
+  private final StringBuilder buildGradleSnippets = new StringBuilder();
+  private int syntheticApiCount;
+  private int syntheticBeanDepth;
   private String[] gradleRunnerArgs = {"assemble"};
 
   public TestProject(File testDir, String projectPathInResources) {
@@ -54,6 +57,22 @@ public class TestProject {
     return this;
   }
 
+  /** Add a snippet to the end of build.gradle, after the snippets added before it. */
+  public TestProject appendToBuildGradle(String buildGradleSnippet) {
+    buildGradleSnippets.append("\n").append(buildGradleSnippet);
+    return this;
+  }
+
+  /**
+   * Add generated APIs to the project, each server gets {@code apiCount} service classes with
+   * {@code beanDepth} nested beans, a client without a server gets {@code apiCount} discovery docs.
+   */
+  public TestProject syntheticApis(int apiCount, int beanDepth) {
+    this.syntheticApiCount = apiCount;
+    this.syntheticBeanDepth = beanDepth;
+    return this;
+  }
+
   public TestProject gradleRunnerArguments(String... args) {
     this.gradleRunnerArgs = args;
     return this;
@@ -72,6 +91,12 @@ public class TestProject {
     if (basePath != null) {
       injectBasePath(basePath);
     }
+    if (buildGradleSnippets.length() > 0) {
+      appendIntoBuildGradleFile(buildGradleSnippets.toString());
+    }
+    if (syntheticApiCount > 0) {
+      SyntheticApis.generate(testDir, syntheticApiCount, syntheticBeanDepth);
+    }
     return GradleRunner.create()
         .withProjectDir(testDir)
         .withPluginClasspath()
@@ -79,6 +104,27 @@ public class TestProject {
         .build();
   }
 
+  /** Run gradle again on the already copied project. */
+  public BuildResult buildAgain(String... args) {
+    return GradleRunner.create()
+        .withProjectDir(testDir)
+        .withPluginClasspath()
+        .withArguments(args)
+        .build();
+  }
+
+  /** Replace text in a file of the already copied project. */
+  public void replaceInFile(String path, String regex, String replacement) throws IOException {
+    File file = new File(testDir, path);
+    String contents = FileUtils.readFileToString(file);
+    FileUtils.writeStringToFile(file, contents.replaceAll(regex, replacement));
+  }
+
+  /** Change the API surface of one synthetic API of the already copied project. */
+  public void changeSyntheticApi(int api) throws IOException {
+    SyntheticApis.change(testDir, api);
+  }
+
   // Inject an endpoints plugin hostname into the build.gradle file.
   private void injectHostname(String hostname) throws IOException {
     injectIntoBuildGradleFile(
@@ -99,6 +145,12 @@ public class TestProject {
     FileUtils.writeStringToFile(buildGradle, buildGradleContents);
   }
 
+  // Helper method to add configuration at the end of the build.gradle file.
+  private void appendIntoBuildGradleFile(String snippet) throws IOException {
+    File buildGradle = new File(testDir, "build.gradle");
+    FileUtils.writeStringToFile(buildGradle, "\n" + snippet + "\n", true);
+  }
+
   // inject an application tag into the appengine-web.xml
   private void injectApplicationId(File projectRoot, String application) throws IOException {
     File app = new File(testDir, "src/main/webapp/WEB-INF/appengine-web.xml");
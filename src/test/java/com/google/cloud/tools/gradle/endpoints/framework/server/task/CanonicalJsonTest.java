@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.server.task;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CanonicalJsonTest {
+
+  // a document many times larger than the heap of the canonicalizing process
+  private static final int OPEN_API_ENTRIES = 80000;
+  private static final String MAX_HEAP = "-Xmx32m";
+
+  @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testCanonicalize_largeDocumentKeepsContent() throws IOException {
+    File openApiDoc = writeOpenApiDoc(tmpDir.newFile("openapi.json"), 5000);
+    Assert.assertTrue(openApiDoc.length() > CanonicalJson.IN_MEMORY_LIMIT);
+    ObjectMapper mapper = new ObjectMapper();
+    Object original = mapper.readValue(openApiDoc, Object.class);
+
+    CanonicalJson.canonicalize(openApiDoc);
+
+    Assert.assertEquals(original, mapper.readValue(openApiDoc, Object.class));
+    List<String> lines = Files.readLines(openApiDoc, Charsets.UTF_8);
+    Assert.assertEquals("{", lines.get(0));
+    Assert.assertEquals("  \"definitions\" : {", lines.get(1));
+    Assert.assertEquals("    \"Bean0\" : {", lines.get(2));
+  }
+
+  @Test
+  public void testCanonicalize_largeDocumentBoundedHeap() throws IOException, InterruptedException {
+    File openApiDoc = writeOpenApiDoc(tmpDir.newFile("openapi.json"), OPEN_API_ENTRIES);
+
+    // in a separate process, so the heap limit only applies to canonicalization
+    Process process =
+        new ProcessBuilder(
+                Arrays.asList(
+                    new File(System.getProperty("java.home"), "bin/java").getAbsolutePath(),
+                    MAX_HEAP,
+                    "-cp",
+                    System.getProperty("java.class.path"),
+                    Canonicalize.class.getName(),
+                    openApiDoc.getAbsolutePath()))
+            .redirectErrorStream(true)
+            .redirectOutput(tmpDir.newFile("canonicalize.log"))
+            .start();
+
+    Assert.assertEquals(
+        "canonicalization failed with " + MAX_HEAP + " for a " + openApiDoc.length() + " byte doc",
+        0,
+        process.waitFor());
+    Map<?, ?> paths = (Map<?, ?>) new ObjectMapper().readValue(openApiDoc, Map.class).get("paths");
+    Assert.assertEquals(OPEN_API_ENTRIES, paths.size());
+  }
+
+  // paths and definitions in reverse key order, so every key has to move
+  private static File writeOpenApiDoc(File file, int entries) throws IOException {
+    try (Writer out = new BufferedWriter(Files.newWriter(file, Charsets.UTF_8))) {
+      out.write("{\"swagger\":\"2.0\",\"paths\":{");
+      for (int i = entries - 1; i >= 0; i--) {
+        out.write(
+            "\"/api"
+                + i
+                + "/{id}\":{\"get\":{\"operationId\":\"get"
+                + i
+                + "\",\"parameters\":[{\"name\":\"id\",\"in\":\"path\",\"required\":true,"
+                + "\"type\":\"string\"}],\"responses\":{\"200\":{\"description\":\"A successful"
+                + " response\",\"schema\":{\"$ref\":\"#/definitions/Bean"
+                + i
+                + "\"}}}}}"
+                + (i > 0 ? "," : ""));
+      }
+      out.write("},\"definitions\":{");
+      for (int i = entries - 1; i >= 0; i--) {
+        out.write(
+            "\"Bean"
+                + i
+                + "\":{\"type\":\"object\",\"properties\":{\"name\":{\"type\":\"string\"},"
+                + "\"count\":{\"type\":\"integer\",\"format\":\"int64\"},\"tags\":{\"type\":"
+                + "\"array\",\"items\":{\"type\":\"string\"}}}}"
+                + (i > 0 ? "," : ""));
+      }
+      out.write("}}");
+    }
+    return file;
+  }
+
+  /** Entry point for canonicalizing a document in a separate process. */
+  public static final class Canonicalize {
+    public static void main(String[] args) throws IOException {
+      CanonicalJson.canonicalize(new File(args[0]));
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework.util;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.hamcrest.CoreMatchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Client library zips are not always well formed, the plugin used the Ant unzip task for them
+ * because Gradle's zipTree failed on some. These zips are written the way such libraries are.
+ */
+public class ZipExtractorTest {
+
+  private static final String SOURCE = "myapi/src/main/java/com/example/myApi/MyApi.java";
+  private static final String MODEL = "myapi/src/main/java/com/example/myApi/model/Bean.java";
+  private static final String POM = "myapi/pom.xml";
+
+  @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testExtract_noDirectoryEntries() throws IOException {
+    File zip = tmpDir.newFile("noDirs.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      putDeflated(out, SOURCE);
+      putDeflated(out, MODEL);
+    }
+
+    assertExtracted(zip, SOURCE, MODEL);
+  }
+
+  @Test
+  public void testExtract_directoryEntriesAfterTheirFiles() throws IOException {
+    File zip = tmpDir.newFile("lateDirs.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      putDeflated(out, SOURCE);
+      out.putNextEntry(new ZipEntry("myapi/src/main/java/com/example/myApi/"));
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("myapi/"));
+      out.closeEntry();
+      putDeflated(out, POM);
+    }
+
+    assertExtracted(zip, SOURCE, POM);
+  }
+
+  @Test
+  public void testExtract_storedAndStreamedEntries() throws IOException {
+    // deflated entries written to a stream carry their sizes in a trailing data descriptor
+    File zip = tmpDir.newFile("mixed.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      putStored(out, POM);
+      putDeflated(out, SOURCE);
+      putStored(out, MODEL);
+    }
+
+    assertExtracted(zip, POM, SOURCE, MODEL);
+  }
+
+  @Test
+  public void testExtract_entryOutsideTargetDirNotWritten() throws IOException {
+    File zip = tmpDir.newFile("slip.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      putDeflated(out, "../outside.java");
+      putDeflated(out, SOURCE);
+    }
+
+    File targetDir = tmpDir.newFolder("target");
+    try {
+      new ZipExtractor(targetDir).extract(zip);
+    } catch (IOException expected) {
+      // depending on the JDK the zip file system rejects the zip or ZipExtractor the entry
+    }
+    Assert.assertFalse(new File(tmpDir.getRoot(), "outside.java").exists());
+  }
+
+  @Test
+  public void testExtract_unchangedFilesNotWritten() throws IOException {
+    File zip = tmpDir.newFile("noDirs.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      putDeflated(out, SOURCE);
+      putDeflated(out, MODEL);
+    }
+    File targetDir = tmpDir.newFolder("target");
+    new ZipExtractor(targetDir).extract(zip);
+    File model = new File(targetDir, MODEL);
+    Assert.assertTrue(model.setLastModified(0));
+    Files.write("changed", new File(targetDir, SOURCE), Charsets.UTF_8);
+
+    ZipExtractor extractor = new ZipExtractor(targetDir);
+    extractor.extract(zip);
+
+    Assert.assertEquals(1, extractor.getWrittenFiles());
+    Assert.assertEquals(1, extractor.getUnchangedFiles());
+    Assert.assertEquals(0, model.lastModified());
+    Assert.assertEquals(SOURCE, Files.toString(new File(targetDir, SOURCE), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testExtract_volatileLinesIgnored() throws IOException {
+    Pattern timestamp = Pattern.compile(" \\* on .* UTC");
+    File zip = tmpDir.newFile("generated.zip");
+    writeZip(zip, SOURCE, "/*\n * on 2021-01-01 at 12:00:00 UTC\n */\nclass MyApi {}\n");
+    File targetDir = tmpDir.newFolder("target");
+    new ZipExtractor(targetDir, timestamp).extract(zip);
+
+    writeZip(zip, SOURCE, "/*\n * on 2021-01-02 at 08:30:00 UTC\n */\nclass MyApi {}\n");
+    ZipExtractor extractor = new ZipExtractor(targetDir, timestamp);
+    extractor.extract(zip);
+    Assert.assertEquals(1, extractor.getUnchangedFiles());
+    Assert.assertThat(
+        Files.toString(new File(targetDir, SOURCE), Charsets.UTF_8),
+        CoreMatchers.containsString("2021-01-01"));
+
+    writeZip(zip, SOURCE, "/*\n * on 2021-01-03 at 08:30:00 UTC\n */\nclass MyApi2 {}\n");
+    extractor = new ZipExtractor(targetDir, timestamp);
+    extractor.extract(zip);
+    Assert.assertEquals(1, extractor.getWrittenFiles());
+  }
+
+  private void assertExtracted(File zip, String... paths) throws IOException {
+    File targetDir = tmpDir.newFolder("target");
+    Assert.assertEquals(ImmutableSet.copyOf(paths), new ZipExtractor(targetDir).extract(zip));
+    for (String path : paths) {
+      Assert.assertEquals(path, Files.toString(new File(targetDir, path), Charsets.UTF_8));
+    }
+  }
+
+  private static void writeZip(File zip, String path, String content) throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+      out.putNextEntry(new ZipEntry(path));
+      out.write(content.getBytes(Charsets.UTF_8));
+      out.closeEntry();
+    }
+  }
+
+  // every entry's content is its own path
+  private static void putDeflated(ZipOutputStream out, String path) throws IOException {
+    out.putNextEntry(new ZipEntry(path));
+    out.write(path.getBytes(Charsets.UTF_8));
+    out.closeEntry();
+  }
+
+  private static void putStored(ZipOutputStream out, String path) throws IOException {
+    byte[] content = path.getBytes(Charsets.UTF_8);
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    ZipEntry entry = new ZipEntry(path);
+    entry.setMethod(ZipEntry.STORED);
+    entry.setSize(content.length);
+    entry.setCompressedSize(content.length);
+    entry.setCrc(crc.getValue());
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ *  Copyright (c) 2021 Google Inc. All Right Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.tools.gradle.endpoints.framework;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java sources of synthetic endpoints APIs, shared by the functional tests and the benchmarks. API
+ * {@code i} is the service class {@code Synthetic<i>} named {@code synthetic<i>}, its methods use a
+ * chain of nested beans {@code Synthetic<i>Bean<depth>}.
+ */
+public final class SyntheticSources {
+
+  /** Package of the generated service classes. */
+  public static final String PACKAGE = "com.example.synthetic";
+
+  private static final String PACKAGE_PATH = "com/example/synthetic";
+
+  private SyntheticSources() {}
+
+  /**
+   * Write {@code count} service classes, each with its own {@code @Api} and a bean graph of {@code
+   * beanDepth} nested beans, into a source directory and return their fully qualified names.
+   */
+  public static List<String> writeServiceClasses(File sourceDir, int count, int beanDepth)
+      throws IOException {
+    List<String> serviceClasses = new ArrayList<>();
+    for (int api = 0; api < count; api++) {
+      writeServiceClass(sourceDir, api, false);
+      // service methods always return the first bean
+      for (int depth = 0; depth < Math.max(1, beanDepth); depth++) {
+        writeBean(sourceDir, api, depth, depth + 1 < beanDepth);
+      }
+      serviceClasses.add(PACKAGE + ".Synthetic" + api);
+    }
+    return serviceClasses;
+  }
+
+  /**
+   * Write the service class of one API, a changed service class has one more API method. Its beans
+   * are written by {@link #writeServiceClasses}.
+   */
+  public static void writeServiceClass(File sourceDir, int api, boolean changed)
+      throws IOException {
+    String bean = "Synthetic" + api + "Bean0";
+    String changedMethod =
+        changed
+            ? "\n"
+                + "  @ApiMethod(name = \"changed\")\n"
+                + "  public "
+                + bean
+                + " changed(@Named(\"value\") String value) {\n"
+                + "    return new "
+                + bean
+                + "();\n"
+                + "  }\n"
+            : "";
+    write(
+        new File(sourceDir, PACKAGE_PATH + "/Synthetic" + api + ".java"),
+        "package "
+            + PACKAGE
+            + ";\n\n"
+            + "import com.google.api.server.spi.config.Api;\n"
+            + "import com.google.api.server.spi.config.ApiMethod;\n"
+            + "import com.google.api.server.spi.config.ApiNamespace;\n"
+            + "import java.util.ArrayList;\n"
+            + "import java.util.List;\n"
+            + "import javax.inject.Named;\n\n"
+            + "@Api(\n"
+            + "    name = \"synthetic"
+            + api
+            + "\",\n"
+            + "    version = \"v1\",\n"
+            + "    namespace =\n"
+            + "        @ApiNamespace(ownerDomain = \"example.com\", ownerName = \"example.com\","
+            + " packagePath = \"\"))\n"
+            + "public class Synthetic"
+            + api
+            + " {\n\n"
+            + "  @ApiMethod(name = \"get\")\n"
+            + "  public "
+            + bean
+            + " get(@Named(\"id\") String id) {\n"
+            + "    return new "
+            + bean
+            + "();\n"
+            + "  }\n\n"
+            + "  @ApiMethod(name = \"list\")\n"
+            + "  public List<"
+            + bean
+            + "> list(@Named(\"limit\") int limit) {\n"
+            + "    return new ArrayList<"
+            + bean
+            + ">();\n"
+            + "  }\n\n"
+            + "  @ApiMethod(name = \"insert\")\n"
+            + "  public "
+            + bean
+            + " insert("
+            + bean
+            + " bean) {\n"
+            + "    return bean;\n"
+            + "  }\n"
+            + changedMethod
+            + "}\n");
+  }
+
+  private static void writeBean(File sourceDir, int api, int depth, boolean hasChild)
+      throws IOException {
+    String bean = "Synthetic" + api + "Bean" + depth;
+    String child = "Synthetic" + api + "Bean" + (depth + 1);
+    String childProperty =
+        hasChild
+            ? "\n  private "
+                + child
+                + " child;\n\n"
+                + "  public "
+                + child
+                + " getChild() {\n"
+                + "    return child;\n"
+                + "  }\n\n"
+                + "  public void setChild("
+                + child
+                + " child) {\n"
+                + "    this.child = child;\n"
+                + "  }\n"
+            : "";
+    write(
+        new File(sourceDir, PACKAGE_PATH + "/" + bean + ".java"),
+        "package "
+            + PACKAGE
+            + ";\n\n"
+            + "import java.util.List;\n\n"
+            + "public class "
+            + bean
+            + " {\n\n"
+            + "  private String name;\n"
+            + "  private long count;\n"
+            + "  private List<String> tags;\n\n"
+            + "  public String getName() {\n"
+            + "    return name;\n"
+            + "  }\n\n"
+            + "  public void setName(String name) {\n"
+            + "    this.name = name;\n"
+            + "  }\n\n"
+            + "  public long getCount() {\n"
+            + "    return count;\n"
+            + "  }\n\n"
+            + "  public void setCount(long count) {\n"
+            + "    this.count = count;\n"
+            + "  }\n\n"
+            + "  public List<String> getTags() {\n"
+            + "    return tags;\n"
+            + "  }\n\n"
+            + "  public void setTags(List<String> tags) {\n"
+            + "    this.tags = tags;\n"
+            + "  }\n"
+            + childProperty
+            + "}\n");
+  }
+
+  private static void write(File file, String contents) throws IOException {
+    Files.createParentDirs(file);
+    Files.asCharSink(file, Charsets.UTF_8).write(contents);
+  }
+}